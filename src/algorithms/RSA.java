@@ -16,13 +16,24 @@ import java.util.Random;
  * 6. Para decifrar: m = c^d mod n
  * 7. Chave pública: (e, n)
  * 8. Chave privada: (d, n)
+ *
+ * A chave privada também guarda p e q e os valores derivados deles
+ * (dP = d mod (p-1), dQ = d mod (q-1), qInv = q^-1 mod p). Com eles, a
+ * decifragem usa o Teorema Chinês do Resto: duas exponenciações com
+ * números da metade do tamanho de n, cerca de 3 a 4 vezes mais rápidas que
+ * c^d mod n.
  */
 public class RSA {
     
     private BigInteger n;  // n = p * q
     private BigInteger e;  // expoente público
     private BigInteger d;  // expoente privado
+    private BigInteger p;  // fatores de n (null se a instância foi criada com chaves existentes)
+    private BigInteger q;
     private int bitLength; // tamanho da chave em bits
+    // Montada uma única vez, com dP, dQ e qInv já calculados, e reaproveitada
+    // em todas as decifragens
+    private ChavePrivada chavePrivada;
     
     /**
      * Classe para representar a chave pública
@@ -56,12 +67,40 @@ public class RSA {
     public static class ChavePrivada {
         private BigInteger d;
         private BigInteger n;
+        // Parâmetros do Teorema Chinês do Resto (null em chaves só com d e n)
+        private BigInteger p;
+        private BigInteger q;
+        private BigInteger dP;   // d mod (p-1)
+        private BigInteger dQ;   // d mod (q-1)
+        private BigInteger qInv; // q^-1 mod p
         
         public ChavePrivada(BigInteger d, BigInteger n) {
             this.d = d;
             this.n = n;
         }
         
+        /**
+         * Chave privada com os fatores de n; os demais parâmetros do Teorema
+         * Chinês do Resto são calculados a partir deles
+         */
+        public ChavePrivada(BigInteger d, BigInteger n, BigInteger p, BigInteger q) {
+            this(d, n, p, q,
+                 d.mod(p.subtract(BigInteger.ONE)),
+                 d.mod(q.subtract(BigInteger.ONE)),
+                 q.modInverse(p));
+        }
+        
+        public ChavePrivada(BigInteger d, BigInteger n, BigInteger p, BigInteger q,
+                            BigInteger dP, BigInteger dQ, BigInteger qInv) {
+            this.d = d;
+            this.n = n;
+            this.p = p;
+            this.q = q;
+            this.dP = dP;
+            this.dQ = dQ;
+            this.qInv = qInv;
+        }
+        
         public BigInteger getD() {
             return d;
         }
@@ -70,6 +109,33 @@ public class RSA {
             return n;
         }
         
+        public BigInteger getP() {
+            return p;
+        }
+        
+        public BigInteger getQ() {
+            return q;
+        }
+        
+        public BigInteger getDP() {
+            return dP;
+        }
+        
+        public BigInteger getDQ() {
+            return dQ;
+        }
+        
+        public BigInteger getQInv() {
+            return qInv;
+        }
+        
+        /**
+         * Indica se a chave tem os parâmetros do Teorema Chinês do Resto
+         */
+        public boolean temCRT() {
+            return p != null;
+        }
+        
         @Override
         public String toString() {
             return "ChavePrivada{d=" + d + ", n=" + n + "}";
@@ -84,6 +150,7 @@ public class RSA {
     public RSA(int bitLength) {
         this.bitLength = bitLength;
         gerarChaves();
+        this.chavePrivada = new ChavePrivada(d, n, p, q);
     }
     
     /**
@@ -97,6 +164,7 @@ public class RSA {
         this.d = d;
         this.n = n;
         this.bitLength = n.bitLength();
+        this.chavePrivada = new ChavePrivada(d, n);
     }
     
     /**
@@ -116,6 +184,8 @@ public class RSA {
         }
         
         // Passo 2: Calcular n = p * q e z = (p-1) * (q-1)
+        this.p = p;
+        this.q = q;
         this.n = p.multiply(q);
         BigInteger z = (p.subtract(BigInteger.ONE)).multiply(q.subtract(BigInteger.ONE));
         
@@ -183,7 +253,7 @@ public class RSA {
      * @return mensagem original
      */
     public BigInteger decifrar(BigInteger mensagemCifrada) {
-        return mensagemCifrada.modPow(d, n);
+        return decifrarComChavePrivada(mensagemCifrada, chavePrivada);
     }
     
     /**
@@ -226,7 +296,45 @@ public class RSA {
      * @return mensagem original
      */
     public static BigInteger decifrarComChavePrivada(BigInteger mensagemCifrada, ChavePrivada chavePrivada) {
-        return mensagemCifrada.modPow(chavePrivada.getD(), chavePrivada.getN());
+        if (!chavePrivada.temCRT()) {
+            return mensagemCifrada.modPow(chavePrivada.getD(), chavePrivada.getN());
+        }
+        // Teorema Chinês do Resto: m1 = c^dP mod p, m2 = c^dQ mod q,
+        // h = qInv * (m1 - m2) mod p, m = m2 + h * q
+        BigInteger m1 = mensagemCifrada.modPow(chavePrivada.getDP(), chavePrivada.getP());
+        BigInteger m2 = mensagemCifrada.modPow(chavePrivada.getDQ(), chavePrivada.getQ());
+        BigInteger h = chavePrivada.getQInv().multiply(m1.subtract(m2)).mod(chavePrivada.getP());
+        return m2.add(h.multiply(chavePrivada.getQ()));
+    }
+    
+    /**
+     * Recupera os fatores p e q de n a partir dos dois expoentes (usado para
+     * completar chaves privadas antigas, gravadas só com d e n).
+     * Como e * d - 1 é múltiplo de (p-1)(q-1), uma raiz quadrada de 1 módulo
+     * n diferente de 1 e de n-1 aparece com probabilidade de pelo menos 1/2
+     * para cada base sorteada, e o mdc dela menos 1 com n é um dos fatores.
+     * @return {p, q}, ou null se os fatores não forem encontrados
+     */
+    public static BigInteger[] fatorar(BigInteger e, BigInteger d, BigInteger n) {
+        BigInteger k = e.multiply(d).subtract(BigInteger.ONE);
+        int t = k.getLowestSetBit();
+        BigInteger r = k.shiftRight(t);
+        BigInteger menosUm = n.subtract(BigInteger.ONE);
+        Random random = new SecureRandom();
+        
+        for (int tentativa = 0; tentativa < 100; tentativa++) {
+            BigInteger g = new BigInteger(n.bitLength() - 1, random).add(BigInteger.TWO);
+            BigInteger x = g.modPow(r, n);
+            for (int i = 0; i < t && !x.equals(BigInteger.ONE) && !x.equals(menosUm); i++) {
+                BigInteger y = x.multiply(x).mod(n);
+                if (y.equals(BigInteger.ONE)) {
+                    BigInteger p = x.subtract(BigInteger.ONE).gcd(n);
+                    return new BigInteger[] { p, n.divide(p) };
+                }
+                x = y;
+            }
+        }
+        return null;
     }
     
     /**
@@ -248,7 +356,7 @@ public class RSA {
     }
     
     public ChavePrivada getChavePrivada() {
-        return new ChavePrivada(d, n);
+        return chavePrivada;
     }
     
     public BigInteger getE() {
@@ -1,15 +1,23 @@
 package app;
 
 import dao.AgendarDAO;
+import dao.Arquivo;
 import dao.ClienteDAO;
+import dao.LogTransacoes;
 import dao.PetDAO;
 import dao.ServicoDAO;
 import model.Agendar;
 import model.Cliente;
 import model.Pet;
 import model.Servico;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Classe para executar bateria de testes com dados de exemplo
@@ -54,6 +62,10 @@ public class BateriaTestes {
             System.out.println("\n[5/5] Testando Validações de Duplicatas...");
             testarValidacoesDuplicatas();
             
+            // Testar recuperação após quedas
+            System.out.println("\n[6/6] Testando Recuperação após Quedas...");
+            testarRecuperacao();
+            
             // Exibir resumo
             System.out.println("\n" + "=".repeat(60));
             exibirResumo();
@@ -81,7 +93,7 @@ public class BateriaTestes {
             {"33344455566", "Camila Ferreira", "camila.ferreira@email.com", "31999990000"}
         };
         
-        int count = 0;
+        List<Cliente> clientes = new ArrayList<>();
         for (String[] dados : dadosClientes) {
             String cpf = dados[0];
             String nome = dados[1];
@@ -89,11 +101,14 @@ public class BateriaTestes {
             String[] telefones = new String[dados.length - 3];
             System.arraycopy(dados, 3, telefones, 0, telefones.length);
             
-            Cliente cliente = new Cliente(-1, cpf, nome, email, telefones);
-            if (clienteDAO.incluirCliente(cliente)) {
-                count++;
-                System.out.println("   ✓ Cliente " + count + ": " + nome + " (CPF: " + cpf + ")");
-            }
+            clientes.add(new Cliente(-1, cpf, nome, email, telefones));
+        }
+        
+        // Inclusão em lote: uma única transação e uma única escrita no arquivo
+        int count = clienteDAO.incluirClientes(clientes);
+        for (int i = 0; i < count; i++) {
+            Cliente cliente = clientes.get(i);
+            System.out.println("   ✓ Cliente " + (i + 1) + ": " + cliente.getNome() + " (CPF: " + cliente.getCpf() + ")");
         }
         
         System.out.println("   Total: " + count + " clientes inseridos");
@@ -118,16 +133,18 @@ public class BateriaTestes {
             {"Microchipagem", "150"}
         };
         
-        int count = 0;
+        List<Servico> servicos = new ArrayList<>();
         for (String[] dados : dadosServicos) {
             String nome = dados[0];
             int valor = Integer.parseInt(dados[1]);
             
-            Servico servico = new Servico(-1, nome, valor);
-            if (servicoDAO.incluirServico(servico)) {
-                count++;
-                System.out.println("   ✓ Serviço " + count + ": " + nome + " (R$ " + valor + ",00)");
-            }
+            servicos.add(new Servico(-1, nome, valor));
+        }
+        
+        int count = servicoDAO.incluirServicos(servicos);
+        for (int i = 0; i < count; i++) {
+            Servico servico = servicos.get(i);
+            System.out.println("   ✓ Serviço " + (i + 1) + ": " + servico.getNome() + " (R$ " + servico.getValor() + ",00)");
         }
         
         System.out.println("   Total: " + count + " serviços inseridos");
@@ -164,7 +181,7 @@ public class BateriaTestes {
             {"Mingau", "Gato", "Vira-lata", 4.5f, camila}
         };
         
-        int count = 0;
+        List<Pet> pets = new ArrayList<>();
         for (Object[] dados : dadosPets) {
             String nome = (String) dados[0];
             String especie = (String) dados[1];
@@ -173,14 +190,16 @@ public class BateriaTestes {
             Cliente dono = (Cliente) dados[4];
             
             if (dono != null) {
-                Pet pet = new Pet(-1, nome, especie, raca, peso, dono);
-                if (petDAO.incluirPet(pet)) {
-                    count++;
-                    System.out.println("   ✓ Pet " + count + ": " + nome + " (" + especie + " - " + raca + ") - Dono: " + dono.getNome());
-                }
+                pets.add(new Pet(-1, nome, especie, raca, peso, dono));
             }
         }
         
+        int count = petDAO.incluirPets(pets);
+        for (int i = 0; i < count; i++) {
+            Pet pet = pets.get(i);
+            System.out.println("   ✓ Pet " + (i + 1) + ": " + pet.getNome() + " (" + pet.getEspecie() + " - " + pet.getRaca() + ") - Dono: " + pet.getDono().getNome());
+        }
+        
         System.out.println("   Total: " + count + " pets inseridos");
     }
     
@@ -644,4 +663,130 @@ public class BateriaTestes {
         
         System.out.println("\n   🛡️ Testes de validação de duplicatas concluídos!");
     }
+    
+    /**
+     * Simula quedas durante uma transação e durante uma compactação, usando
+     * arquivos de teste próprios, e verifica a recuperação na reabertura
+     */
+    private void testarRecuperacao() {
+        System.out.println("   💾 Testando recuperação após quedas...");
+        
+        // Teste 1: transação confirmada no log, mas que não chegou aos arquivos
+        System.out.println("\n   [Teste 1] Transação reaplicada a partir do log:");
+        String entidade = "teste_recuperacao_log";
+        try {
+            LogTransacoes log = LogTransacoes.getInstance();
+            Arquivo<Servico> arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            arq.create(new Servico(-1, "Antes da queda", 1000));
+            log.checkpoint();
+            Map<File, byte[]> antes = copiarArquivos(entidade);
+            
+            arq.create(new Servico(-1, "Depois da queda", 2000));
+            arq.close();
+            
+            // Os arquivos voltam ao estado anterior à transação (a aplicação
+            // não chegou ao disco) e o log termina com uma transação incompleta
+            restaurarArquivos(antes);
+            try (FileOutputStream wal = new FileOutputStream("src/dados/transacoes.wal", true)) {
+                wal.write(new byte[] { 0, 0, 1, 0, 42, 42, 42 });
+            }
+            log.recuperar();
+            
+            arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            List<Servico> servicos = arq.findAll(s -> true);
+            arq.close();
+            if (servicos.size() == 2 && servicos.get(1).getNome().equals("Depois da queda")
+                    && new File("src/dados/transacoes.wal").length() == 0) {
+                System.out.println("   ✅ CORRETO: Transação reaplicada e final incompleto descartado");
+            } else {
+                System.out.println("   ❌ ERRO: Registros após a recuperação: " + servicos.size());
+            }
+        } catch (Exception e) {
+            System.out.println("   ⚠️ Erro inesperado: " + e.getMessage());
+        } finally {
+            apagarArquivos(entidade);
+        }
+        
+        // Teste 2: compactação interrompida depois do marcador, antes da troca
+        System.out.println("\n   [Teste 2] Compactação concluída a partir do marcador:");
+        entidade = "teste_recuperacao_compactacao";
+        String base = "src/dados/" + entidade + "/" + entidade;
+        try {
+            Arquivo<Servico> arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            for (int i = 1; i <= 20; i++) {
+                arq.create(new Servico(-1, "Serviço " + i, i * 100));
+            }
+            for (int i = 2; i <= 20; i += 2) {
+                arq.delete(i);
+            }
+            arq.close();
+            Map<File, byte[]> antes = copiarArquivos(entidade);
+            
+            arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            arq.compactar();
+            arq.close();
+            long tamanhoCompactado = new File(base + ".db").length();
+            
+            // Os temporários e o marcador estão gravados, mas a troca não aconteceu
+            Files.move(new File(base + ".db").toPath(), new File(base + ".db.tmp").toPath());
+            Files.move(new File(base + ".idx").toPath(), new File(base + ".idx.tmp").toPath());
+            restaurarArquivos(antes);
+            new File(base + ".compactando").createNewFile();
+            
+            arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            List<Servico> servicos = arq.findAll(s -> true);
+            arq.close();
+            boolean pendentes = new File(base + ".compactando").exists()
+                || new File(base + ".db.tmp").exists() || new File(base + ".idx.tmp").exists();
+            if (servicos.size() == 10 && servicos.get(9).getNome().equals("Serviço 19")
+                    && new File(base + ".db").length() == tamanhoCompactado && !pendentes) {
+                System.out.println("   ✅ CORRETO: Troca dos arquivos concluída na reabertura");
+            } else {
+                System.out.println("   ❌ ERRO: Registros após a recuperação: " + servicos.size());
+            }
+            
+            // Sem o marcador, os temporários podem estar incompletos e são descartados
+            Files.write(new File(base + ".db.tmp").toPath(), new byte[] { 1, 2, 3 });
+            arq = new Arquivo<>(entidade, Servico.class.getConstructor());
+            servicos = arq.findAll(s -> true);
+            arq.close();
+            if (servicos.size() == 10 && !new File(base + ".db.tmp").exists()) {
+                System.out.println("   ✅ CORRETO: Temporários sem marcador descartados");
+            } else {
+                System.out.println("   ❌ ERRO: Temporários sem marcador não foram descartados");
+            }
+        } catch (Exception e) {
+            System.out.println("   ⚠️ Erro inesperado: " + e.getMessage());
+        } finally {
+            apagarArquivos(entidade);
+        }
+        
+        System.out.println("\n   💾 Testes de recuperação concluídos!");
+    }
+    
+    // Conteúdo de todos os arquivos de uma entidade
+    private Map<File, byte[]> copiarArquivos(String entidade) throws Exception {
+        Map<File, byte[]> copia = new HashMap<>();
+        for (File f : new File("src/dados/" + entidade).listFiles()) {
+            copia.put(f, Files.readAllBytes(f.toPath()));
+        }
+        return copia;
+    }
+    
+    private void restaurarArquivos(Map<File, byte[]> copia) throws Exception {
+        for (Map.Entry<File, byte[]> e : copia.entrySet()) {
+            Files.write(e.getKey().toPath(), e.getValue());
+        }
+    }
+    
+    private void apagarArquivos(String entidade) {
+        File diretorio = new File("src/dados/" + entidade);
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos != null) {
+            for (File f : arquivos) {
+                f.delete();
+            }
+        }
+        diretorio.delete();
+    }
 }
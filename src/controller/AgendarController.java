@@ -195,7 +195,9 @@ public class AgendarController implements Initializable {
     @FXML
     public void listarTodos() {
         try {
-            List<Agendar> agendamentos = agendarDAO.listarTodosAgendamentos();
+            // Pelo índice por data: cada lista já sai em ordem de data
+            List<Agendar> agendamentos = new ArrayList<>(agendarDAO.buscarAgendamentosPassados());
+            agendamentos.addAll(agendarDAO.buscarAgendamentosFuturos());
             atualizarListaAgendamentos(agendamentos);
 
         } catch (Exception e) {
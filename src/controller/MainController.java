@@ -10,6 +10,10 @@ import javafx.scene.control.Button;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import app.BateriaTestes;
+import dao.AgendarDAO;
+import dao.ClienteDAO;
+import dao.PetDAO;
+import dao.ServicoDAO;
 
 public class MainController {
 
@@ -31,6 +35,9 @@ public class MainController {
     @FXML
     private Button btnCompressao;
     
+    @FXML
+    private Button btnCompactar;
+    
     @FXML
     private Button btnTestes;
     
@@ -91,6 +98,42 @@ public class MainController {
         }
     }
 
+    @FXML
+    private void compactarArquivos() {
+        // As telas que alteram os dados só são abertas pelo menu, então o menu
+        // fica bloqueado até o fim da compactação
+        bloquearMenu(true);
+        // Compacta os arquivos em uma thread separada para não bloquear a UI
+        new Thread(() -> {
+            try (ClienteDAO clienteDAO = new ClienteDAO();
+                 PetDAO petDAO = new PetDAO();
+                 ServicoDAO servicoDAO = new ServicoDAO();
+                 AgendarDAO agendarDAO = new AgendarDAO()) {
+                long recuperados = clienteDAO.compactar()
+                    + petDAO.compactar()
+                    + servicoDAO.compactar()
+                    + agendarDAO.compactar();
+                Platform.runLater(() -> {
+                    bloquearMenu(false);
+                    mostrarInfo("Arquivos compactados", "Espaço recuperado: " + recuperados + " bytes");
+                });
+            } catch (Exception e) {
+                Platform.runLater(() -> {
+                    bloquearMenu(false);
+                    mostrarErro("Erro ao compactar arquivos", e.getMessage());
+                });
+            }
+        }).start();
+    }
+
+    private void bloquearMenu(boolean bloquear) {
+        Button[] botoes = { btnClientes, btnPets, btnServicos, btnAgendamentos,
+                            btnBuscaPadrao, btnCompressao, btnCompactar, btnTestes };
+        for (Button botao : botoes) {
+            botao.setDisable(bloquear);
+        }
+    }
+
     @FXML
     private void executarTestes() {
         try {
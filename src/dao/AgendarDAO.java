@@ -1,20 +1,72 @@
 package dao;
 
 import model.Agendar;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
-public class AgendarDAO {
+public class AgendarDAO implements AutoCloseable {
+    // Ocupação das páginas da Árvore B+ reconstruída (folga para inclusões)
+    private static final double OCUPACAO_INDICE = 0.75;
+
     private Arquivo<Agendar> arqAgendamentos;
     private ArvoreBMais<RegistroAgendamento> indiceBMais;
+    // Índice secundário (idServico, idPet) -> idAgendamento
+    private ArvoreBMais<RegistroAgendamentoServico> indiceServico;
+    // Índice por data (dia, idAgendamento)
+    private ArvoreBMais<RegistroAgendamentoData> indiceData;
 
     public AgendarDAO() throws Exception {
-        arqAgendamentos = new Arquivo<>("agendamentos", Agendar.class.getConstructor());
+        arqAgendamentos = new Arquivo<>("agendamentos", Agendar.class.getConstructor(), true);
         indiceBMais = new ArvoreBMais<>(
             RegistroAgendamento.class.getConstructor(),
             5,  // Ordem da árvore
             "src/dados/agendamentos/agendamentos_bmais.db"
         );
+        indiceServico = new ArvoreBMais<>(
+            RegistroAgendamentoServico.class.getConstructor(),
+            5,  // Ordem da árvore
+            "src/dados/agendamentos/agendamentos_servico_bmais.db"
+        );
+        indiceData = new ArvoreBMais<>(
+            RegistroAgendamentoData.class.getConstructor(),
+            5,  // Ordem da árvore
+            "src/dados/agendamentos/agendamentos_data_bmais.db"
+        );
+
+        // Registros gravados em um formato anterior são convertidos uma única
+        // vez, e a sobra dos registros regravados é recuperada em seguida (a
+        // compactação não pode ser feita dentro da transação de um chamador)
+        if (arqAgendamentos.getVersaoFormato() < Agendar.VERSAO_FORMATO
+                && LogTransacoes.getInstance().executar(this::migrarFormato) > 0
+                && !LogTransacoes.getInstance().emTransacao()) {
+            compactar();
+        }
+
+        // Bases criadas antes do índice por serviço: monta-o a partir do
+        // índice principal
+        if (indiceServico.empty() && !indiceBMais.empty()) {
+            LogTransacoes.getInstance().executar(this::montarIndiceServico);
+        }
+        // O índice por data precisa das datas, lidas do arquivo principal
+        if (indiceData.empty() && !indiceBMais.empty()) {
+            LogTransacoes.getInstance().executar(() -> montarIndiceData(arqAgendamentos.findAll(a -> true)));
+        }
+    }
+
+    /**
+     * Regrava no formato atual os agendamentos gravados no formato antigo
+     * (data como texto). O registro novo é menor, então cada um é regravado
+     * no próprio lugar; a sobra é recuperada na próxima compactação.
+     * @return quantidade de agendamentos convertidos
+     */
+    private int migrarFormato() throws Exception {
+        List<Agendar> antigos = arqAgendamentos.findAll(Agendar::formatoAntigo, a -> true);
+        for (Agendar agendamento : antigos) {
+            arqAgendamentos.update(agendamento);
+        }
+        arqAgendamentos.setVersaoFormato(Agendar.VERSAO_FORMATO);
+        return antigos.size();
     }
 
     /**
@@ -22,95 +74,166 @@ public class AgendarDAO {
      * Valida se já existe um agendamento para o mesmo pet e serviço
      */
     public boolean incluirAgendamento(Agendar agendamento) throws Exception {
-        // Validar se já existe agendamento para este pet com este serviço
-        if (existeAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
-            throw new IllegalArgumentException(
-                "Já existe um agendamento para este pet com este serviço"
-            );
-        }
+        return LogTransacoes.getInstance().executar(() -> {
+            // Validar se já existe agendamento para este pet com este serviço
+            if (existeAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
+                throw new IllegalArgumentException(
+                    "Já existe um agendamento para este pet com este serviço"
+                );
+            }
         
-        // Criar o agendamento no arquivo principal
-        int idGerado = arqAgendamentos.create(agendamento);
-        
-        if (idGerado > 0) {
-            // Inserir na Árvore B+ o relacionamento (idPet, idServico) -> idAgendamento
-            RegistroAgendamento registro = new RegistroAgendamento(
-                agendamento.getIdPet(),
-                agendamento.getIdServico(),
-                idGerado
-            );
-            indiceBMais.create(registro);
-            return true;
-        }
+            // Criar o agendamento no arquivo principal
+            int idGerado = arqAgendamentos.create(agendamento);
+        
+            if (idGerado > 0) {
+                // Inserir na Árvore B+ o relacionamento (idPet, idServico) -> idAgendamento
+                RegistroAgendamento registro = new RegistroAgendamento(
+                    agendamento.getIdPet(),
+                    agendamento.getIdServico(),
+                    idGerado
+                );
+                indiceBMais.create(registro);
+                indiceServico.create(new RegistroAgendamentoServico(
+                    agendamento.getIdServico(),
+                    agendamento.getIdPet(),
+                    idGerado
+                ));
+                indiceData.create(new RegistroAgendamentoData(agendamento.getData(), idGerado));
+                return true;
+            }
         
-        return false;
+            return false;
+        });
+    }
+
+    /**
+     * Inclui vários agendamentos de uma vez (importação em lote).
+     * Os agendamentos são gravados com Arquivo.createAll e inseridos na
+     * Árvore B+ na mesma transação. Se algum par (pet, serviço) já tiver
+     * agendamento, nenhum é incluído.
+     * @return quantidade de agendamentos incluídos
+     */
+    public int incluirAgendamentos(List<Agendar> agendamentos) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            java.util.Set<Long> pares = new java.util.HashSet<>();
+            for (Agendar agendamento : agendamentos) {
+                long par = ((long) agendamento.getIdPet() << 32) | (agendamento.getIdServico() & 0xFFFFFFFFL);
+                if (!pares.add(par) || existeAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
+                    throw new IllegalArgumentException(
+                        "Já existe um agendamento para o pet " + agendamento.getIdPet() +
+                        " com o serviço " + agendamento.getIdServico()
+                    );
+                }
+            }
+
+            int[] ids = arqAgendamentos.createAll(agendamentos);
+            for (int i = 0; i < ids.length; i++) {
+                Agendar agendamento = agendamentos.get(i);
+                indiceBMais.create(new RegistroAgendamento(
+                    agendamento.getIdPet(),
+                    agendamento.getIdServico(),
+                    ids[i]
+                ));
+                indiceServico.create(new RegistroAgendamentoServico(
+                    agendamento.getIdServico(),
+                    agendamento.getIdPet(),
+                    ids[i]
+                ));
+                indiceData.create(new RegistroAgendamentoData(agendamento.getData(), ids[i]));
+            }
+            return ids.length;
+        });
     }
 
     /**
      * Altera um agendamento existente
      */
     public boolean alterarAgendamento(Agendar agendamento) throws Exception {
-        // Buscar agendamento existente
-        Agendar agendamentoExistente = arqAgendamentos.read(agendamento.getId());
-        if (agendamentoExistente == null) {
-            throw new IllegalArgumentException("Agendamento não encontrado com ID: " + agendamento.getId());
-        }
+        return LogTransacoes.getInstance().executar(() -> {
+            // Buscar agendamento existente
+            Agendar agendamentoExistente = arqAgendamentos.read(agendamento.getId());
+            if (agendamentoExistente == null) {
+                throw new IllegalArgumentException("Agendamento não encontrado com ID: " + agendamento.getId());
+            }
         
-        // Se mudou o pet ou serviço, validar se não existe outro agendamento
-        if (agendamentoExistente.getIdPet() != agendamento.getIdPet() ||
-            agendamentoExistente.getIdServico() != agendamento.getIdServico()) {
+            // Se mudou o pet ou serviço, validar se não existe outro agendamento
+            if (agendamentoExistente.getIdPet() != agendamento.getIdPet() ||
+                agendamentoExistente.getIdServico() != agendamento.getIdServico()) {
             
-            if (existeAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
-                throw new IllegalArgumentException(
-                    "Já existe outro agendamento para este pet com este serviço"
-                );
-            }
+                if (existeAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
+                    throw new IllegalArgumentException(
+                        "Já existe outro agendamento para este pet com este serviço"
+                    );
+                }
             
-            // Remover o registro antigo da Árvore B+
-            RegistroAgendamento registroAntigo = new RegistroAgendamento(
-                agendamentoExistente.getIdPet(),
-                agendamentoExistente.getIdServico(),
-                agendamento.getId()
-            );
-            indiceBMais.delete(registroAntigo);
+                // Remover o registro antigo da Árvore B+
+                RegistroAgendamento registroAntigo = new RegistroAgendamento(
+                    agendamentoExistente.getIdPet(),
+                    agendamentoExistente.getIdServico(),
+                    agendamento.getId()
+                );
+                indiceBMais.delete(registroAntigo);
+                indiceServico.delete(new RegistroAgendamentoServico(
+                    agendamentoExistente.getIdServico(),
+                    agendamentoExistente.getIdPet(),
+                    agendamento.getId()
+                ));
             
-            // Inserir o novo registro na Árvore B+
-            RegistroAgendamento registroNovo = new RegistroAgendamento(
-                agendamento.getIdPet(),
-                agendamento.getIdServico(),
-                agendamento.getId()
-            );
-            indiceBMais.create(registroNovo);
-        }
+                // Inserir o novo registro na Árvore B+
+                RegistroAgendamento registroNovo = new RegistroAgendamento(
+                    agendamento.getIdPet(),
+                    agendamento.getIdServico(),
+                    agendamento.getId()
+                );
+                indiceBMais.create(registroNovo);
+                indiceServico.create(new RegistroAgendamentoServico(
+                    agendamento.getIdServico(),
+                    agendamento.getIdPet(),
+                    agendamento.getId()
+                ));
+            }
+
+            // Se mudou a data, atualizar o índice por data
+            if (RegistroAgendamentoData.dia(agendamentoExistente.getData()) !=
+                RegistroAgendamentoData.dia(agendamento.getData())) {
+                indiceData.delete(new RegistroAgendamentoData(agendamentoExistente.getData(), agendamento.getId()));
+                indiceData.create(new RegistroAgendamentoData(agendamento.getData(), agendamento.getId()));
+            }
         
-        return arqAgendamentos.update(agendamento);
+            return arqAgendamentos.update(agendamento);
+        });
     }
 
     /**
      * Exclui um agendamento
      */
     public boolean excluirAgendamento(int idPet, int idServico) throws Exception {
-        // Buscar o ID do agendamento na Árvore B+
-        RegistroAgendamento chave = new RegistroAgendamento(idPet, idServico, 0);
-        ArrayList<RegistroAgendamento> resultados = indiceBMais.read(chave);
+        return LogTransacoes.getInstance().executar(() -> {
+            // Buscar o ID do agendamento na Árvore B+
+            RegistroAgendamento chave = new RegistroAgendamento(idPet, idServico, 0);
+            ArrayList<RegistroAgendamento> resultados = indiceBMais.read(chave);
         
-        if (resultados == null || resultados.isEmpty()) {
-            return false;
-        }
+            if (resultados == null || resultados.isEmpty()) {
+                return false;
+            }
         
-        // Pegar o primeiro resultado (deveria haver apenas um)
-        RegistroAgendamento registro = resultados.get(0);
-        int idAgendamento = registro.getIdAgendamento();
+            // Pegar o primeiro resultado (deveria haver apenas um)
+            RegistroAgendamento registro = resultados.get(0);
+            int idAgendamento = registro.getIdAgendamento();
         
-        // Remover do arquivo principal
-        boolean removido = arqAgendamentos.delete(idAgendamento);
+            // Remover do arquivo principal (a data é lida antes, para o índice por data)
+            Agendar agendamento = arqAgendamentos.read(idAgendamento);
+            boolean removido = arqAgendamentos.delete(idAgendamento);
         
-        if (removido) {
-            // Remover da Árvore B+
-            indiceBMais.delete(registro);
-        }
+            if (removido) {
+                // Remover das Árvores B+
+                indiceBMais.delete(registro);
+                indiceServico.delete(new RegistroAgendamentoServico(idServico, idPet, idAgendamento));
+                indiceData.delete(new RegistroAgendamentoData(agendamento.getData(), idAgendamento));
+            }
         
-        return removido;
+            return removido;
+        });
     }
 
     /**
@@ -132,33 +255,92 @@ public class AgendarDAO {
      * Busca todos os agendamentos de um pet específico
      */
     public List<Agendar> buscarAgendamentosPorPet(int idPet) throws Exception {
-        List<Agendar> agendamentos = new ArrayList<>();
-        
-        // Como a árvore B+ não suporta busca por chave parcial diretamente,
-        // vamos usar o arquivo principal e filtrar
-        List<Agendar> todos = arqAgendamentos.findAll(a -> a.getIdPet() == idPet);
-        
-        return todos;
+        // A árvore B+ é ordenada por (idPet, idServico): os agendamentos do pet
+        // são o intervalo entre o menor e o maior idServico possíveis
+        ArrayList<RegistroAgendamento> registros = indiceBMais.readRange(
+            new RegistroAgendamento(idPet, Integer.MIN_VALUE, 0),
+            new RegistroAgendamento(idPet, Integer.MAX_VALUE, 0)
+        );
+
+        List<Agendar> agendamentos = new ArrayList<>(registros.size());
+        for (RegistroAgendamento registro : registros) {
+            Agendar agendamento = arqAgendamentos.read(registro.getIdAgendamento());
+            if (agendamento != null) {
+                agendamentos.add(agendamento);
+            }
+        }
+        return agendamentos;
     }
 
     /**
      * Busca todos os agendamentos de um serviço específico
      */
     public List<Agendar> buscarAgendamentosPorServico(int idServico) throws Exception {
-        List<Agendar> agendamentos = new ArrayList<>();
-        
-        // Usar o arquivo principal e filtrar
-        List<Agendar> todos = arqAgendamentos.findAll(a -> a.getIdServico() == idServico);
-        
-        return todos;
+        // Intervalo do serviço no índice secundário, ordenado por (idServico, idPet)
+        ArrayList<RegistroAgendamentoServico> registros = indiceServico.readRange(
+            new RegistroAgendamentoServico(idServico, Integer.MIN_VALUE, 0),
+            new RegistroAgendamentoServico(idServico, Integer.MAX_VALUE, 0)
+        );
+
+        List<Agendar> agendamentos = new ArrayList<>(registros.size());
+        for (RegistroAgendamentoServico registro : registros) {
+            Agendar agendamento = arqAgendamentos.read(registro.getIdAgendamento());
+            if (agendamento != null) {
+                agendamentos.add(agendamento);
+            }
+        }
+        return agendamentos;
+    }
+
+    /**
+     * Busca os agendamentos entre duas datas (inclusive), em ordem de data.
+     * Uma data null deixa o intervalo aberto daquele lado; com o início
+     * aberto, os agendamentos sem data também são incluídos (vêm primeiro).
+     */
+    public List<Agendar> buscarAgendamentosPorPeriodo(LocalDate inicio, LocalDate fim) throws Exception {
+        ArrayList<RegistroAgendamentoData> registros = indiceData.readRange(
+            new RegistroAgendamentoData(RegistroAgendamentoData.dia(inicio), Integer.MIN_VALUE),
+            new RegistroAgendamentoData(fim != null ? RegistroAgendamentoData.dia(fim) : Integer.MAX_VALUE, Integer.MAX_VALUE)
+        );
+
+        List<Agendar> agendamentos = new ArrayList<>(registros.size());
+        for (RegistroAgendamentoData registro : registros) {
+            Agendar agendamento = arqAgendamentos.read(registro.getIdAgendamento());
+            if (agendamento != null) {
+                agendamentos.add(agendamento);
+            }
+        }
+        return agendamentos;
+    }
+
+    /**
+     * Busca os agendamentos dos próximos dias, a partir de hoje (inclusive)
+     */
+    public List<Agendar> buscarProximosAgendamentos(int dias) throws Exception {
+        LocalDate hoje = LocalDate.now();
+        return buscarAgendamentosPorPeriodo(hoje, hoje.plusDays(dias - 1));
+    }
+
+    /**
+     * Busca os agendamentos de hoje em diante
+     */
+    public List<Agendar> buscarAgendamentosFuturos() throws Exception {
+        return buscarAgendamentosPorPeriodo(LocalDate.now(), null);
+    }
+
+    /**
+     * Busca os agendamentos anteriores a hoje (e os sem data)
+     */
+    public List<Agendar> buscarAgendamentosPassados() throws Exception {
+        return buscarAgendamentosPorPeriodo(null, LocalDate.now().minusDays(1));
     }
 
     /**
      * Lista todos os agendamentos
      */
     public List<Agendar> listarTodosAgendamentos() throws Exception {
-        // Buscar todos os agendamentos do arquivo principal
-        return arqAgendamentos.findAll(a -> true);
+        // Buscar todos os agendamentos do arquivo principal (varredura paralela)
+        return arqAgendamentos.findAllParalelo(a -> true);
     }
 
     /**
@@ -174,36 +356,110 @@ public class AgendarDAO {
      * Exclui todos os agendamentos de um pet específico (exclusão em cascata)
      */
     public int excluirAgendamentosPorPet(int idPet) throws Exception {
-        List<Agendar> agendamentos = buscarAgendamentosPorPet(idPet);
-        int count = 0;
+        return LogTransacoes.getInstance().executar(() -> {
+            List<Agendar> agendamentos = buscarAgendamentosPorPet(idPet);
+            int count = 0;
         
-        for (Agendar agendamento : agendamentos) {
-            if (excluirAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
-                count++;
+            for (Agendar agendamento : agendamentos) {
+                if (excluirAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
+                    count++;
+                }
             }
-        }
         
-        return count;
+            return count;
+        });
     }
 
     /**
      * Exclui todos os agendamentos de um serviço específico (exclusão em cascata)
      */
     public int excluirAgendamentosPorServico(int idServico) throws Exception {
-        List<Agendar> agendamentos = buscarAgendamentosPorServico(idServico);
-        int count = 0;
+        return LogTransacoes.getInstance().executar(() -> {
+            List<Agendar> agendamentos = buscarAgendamentosPorServico(idServico);
+            int count = 0;
         
-        for (Agendar agendamento : agendamentos) {
-            if (excluirAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
-                count++;
+            for (Agendar agendamento : agendamentos) {
+                if (excluirAgendamento(agendamento.getIdPet(), agendamento.getIdServico())) {
+                    count++;
+                }
             }
-        }
         
-        return count;
+            return count;
+        });
+    }
+
+    /**
+     * Compacta o arquivo de agendamentos, descartando os registros excluídos.
+     * As árvores B+ guardam apenas IDs, então não precisariam ser
+     * reconstruídas; elas são reconstruídas mesmo assim, para descartar as
+     * páginas excluídas e voltar a ter as folhas gravadas em sequência.
+     * Os registros são regravados com o tamanho do formato atual. Arquivo e
+     * árvores são refeitos com a trava das transações, então nenhuma outra
+     * thread enxerga o arquivo compactado com as árvores antigas.
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar() throws Exception {
+        return LogTransacoes.getInstance().ler(() -> {
+            long recuperados = arqAgendamentos.compactar(Agendar::converterFormato);
+            reconstruirIndice();
+            return recuperados;
+        });
+    }
+
+    /**
+     * Reconstrói as Árvores B+ a partir do arquivo de agendamentos, com uma
+     * carga em lote dos pares (idPet, idServico) ordenados.
+     * @return quantidade de agendamentos indexados
+     */
+    public int reconstruirIndice() throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            List<RegistroAgendamento> registros = new ArrayList<>();
+            List<Agendar> agendamentos = arqAgendamentos.findAll(a -> true);
+            for (Agendar agendamento : agendamentos) {
+                registros.add(new RegistroAgendamento(
+                    agendamento.getIdPet(),
+                    agendamento.getIdServico(),
+                    agendamento.getId()
+                ));
+            }
+            registros.sort(RegistroAgendamento::compareTo);
+            int quantidade = indiceBMais.construirEmLote(registros.iterator(), OCUPACAO_INDICE);
+            montarIndiceServico();
+            montarIndiceData(agendamentos);
+            return quantidade;
+        });
+    }
+
+    // Monta o índice por serviço a partir do índice principal, com uma carga
+    // em lote dos pares (idServico, idPet) ordenados
+    private int montarIndiceServico() throws Exception {
+        List<RegistroAgendamentoServico> registros = new ArrayList<>();
+        java.util.Iterator<RegistroAgendamento> it = indiceBMais.iterator(null);
+        while (it.hasNext()) {
+            RegistroAgendamento registro = it.next();
+            registros.add(new RegistroAgendamentoServico(
+                registro.getIdServico(),
+                registro.getIdPet(),
+                registro.getIdAgendamento()
+            ));
+        }
+        registros.sort(RegistroAgendamentoServico::compareTo);
+        return indiceServico.construirEmLote(registros.iterator(), OCUPACAO_INDICE);
+    }
+
+    // Monta o índice por data com uma carga em lote dos pares (dia, id) ordenados
+    private int montarIndiceData(List<Agendar> agendamentos) throws Exception {
+        List<RegistroAgendamentoData> registros = new ArrayList<>(agendamentos.size());
+        for (Agendar agendamento : agendamentos) {
+            registros.add(new RegistroAgendamentoData(agendamento.getData(), agendamento.getId()));
+        }
+        registros.sort(RegistroAgendamentoData::compareTo);
+        return indiceData.construirEmLote(registros.iterator(), OCUPACAO_INDICE);
     }
 
+    @Override
     public void close() throws Exception {
-        // Fechar recursos se necessário
+        arqAgendamentos.close();
     }
 }
 
@@ -1,283 +1,754 @@
 package dao;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class Arquivo<T extends Registro> {
     private static final int TAM_CABECALHO = 12;
-    private RandomAccessFile arquivo;
+    // Abaixo desta quantidade de registros a varredura paralela não compensa
+    private static final int LIMIAR_PARALELO = 10000;
+    // Tamanho máximo aproximado de cada partição da varredura paralela
+    private static final long TAM_MAX_PARTICAO = 4L * 1024 * 1024;
+    private String nomeEntidade;
     private String nomeArquivo;
     private Constructor<T> construtor;
-    private IndiceSequencial indice;
+
+    /**
+     * Arquivo de dados, índice, espaços livres e mapeamento de um arquivo
+     * aberto. Como os diretórios da HashExtensivel, o estado é compartilhado
+     * pelas instâncias abertas sobre o mesmo arquivo (pelo caminho canônico):
+     * todas enxergam o mesmo índice em memória e, após uma compactação,
+     * passam juntas a usar os novos arquivos.
+     */
+    private static class Estado {
+        String chave;
+        ArquivoTransacional arquivo;
+        IndiceSequencial indice;
+        EspacoLivre espacoLivre;
+        ByteBuffer mapa;
+        int instancias;
+    }
+
+    private static final java.util.Map<String, Estado> abertos = new java.util.HashMap<>();
+    private Estado estado;
+    private boolean fechado;
+
+    // Leitura mapeada em memória (opcional): as leituras são servidas
+    // diretamente do mapeamento, sem seek/read no RandomAccessFile
+    private boolean leituraMapeada;
 
     public Arquivo(String nomeArquivo, Constructor<T> construtor) throws Exception {
+        this(nomeArquivo, construtor, false);
+    }
+
+    /**
+     * @param leituraMapeada se true, read e as varreduras leem o arquivo por meio
+     *                       de um MappedByteBuffer, remapeado quando o arquivo cresce
+     */
+    public Arquivo(String nomeArquivo, Constructor<T> construtor, boolean leituraMapeada) throws Exception {
         File diretorio = new File("src/dados");
         if (!diretorio.exists()) diretorio.mkdirs();
 
         diretorio = new File("src/dados/" + nomeArquivo);
         if (!diretorio.exists()) diretorio.mkdir();
 
+        this.nomeEntidade = nomeArquivo;
         this.nomeArquivo = "src/dados/" + nomeArquivo + "/" + nomeArquivo + ".db";
         this.construtor = construtor;
-        this.arquivo = new RandomAccessFile(this.nomeArquivo, "rw");
-        this.indice = new IndiceSequencial(nomeArquivo);
+        this.leituraMapeada = leituraMapeada;
+
+        String chave = new File(this.nomeArquivo).getCanonicalPath();
+        synchronized (abertos) {
+            estado = abertos.get(chave);
+            if (estado == null) {
+                estado = abrir();
+                estado.chave = chave;
+                abertos.put(chave, estado);
+            }
+            estado.instancias++;
+        }
+    }
+
+    // Primeira abertura do arquivo nesta execução
+    private Estado abrir() throws Exception {
+        recuperarCompactacao();
+        Estado novo = new Estado();
+        novo.arquivo = new ArquivoTransacional(nomeArquivo);
+        novo.indice = new IndiceSequencial(nomeEntidade);
+
+        if (novo.arquivo.length() < TAM_CABECALHO) {
+            novo.arquivo.writeInt(0);    // Último ID usado
+            novo.arquivo.writeInt(-1);   // Versão do formato dos registros (-1: sem versão)
+            novo.arquivo.writeInt(-1);   // Antiga lista de registros excluídos (não mais usada)
+        }
+        novo.espacoLivre = new EspacoLivre(novo.arquivo, TAM_CABECALHO, caminhoLivres());
+        return novo;
+    }
+
+    private String caminhoLivres() {
+        return "src/dados/" + nomeEntidade + "/" + nomeEntidade + "_livres.log";
+    }
+
+    // Marcador gravado quando os arquivos temporários da compactação estão
+    // completos; a partir dele, a troca dos arquivos deve ser concluída
+    private String caminhoMarcador() {
+        return "src/dados/" + nomeEntidade + "/" + nomeEntidade + ".compactando";
+    }
+
+    // Conclui (ou descarta) uma compactação interrompida por uma queda
+    private void recuperarCompactacao() throws Exception {
+        File marcador = new File(caminhoMarcador());
+        File dadosTemp = new File(nomeArquivo + ".tmp");
+        File indiceTemp = new File(IndiceSequencial.caminhoIndice(nomeEntidade) + ".tmp");
+
+        if (marcador.exists()) {
+            efetivarCompactacao(dadosTemp, indiceTemp, marcador);
+        } else {
+            // Os temporários podem estar incompletos: os arquivos originais valem
+            dadosTemp.delete();
+            indiceTemp.delete();
+        }
+    }
+
+    // Substitui dados e índice pelos temporários e descarta os diários, que se
+    // referem a endereços do arquivo antigo. Cada passo pode ser repetido.
+    private void efetivarCompactacao(File dadosTemp, File indiceTemp, File marcador) throws Exception {
+        if (dadosTemp.exists()) {
+            Files.move(dadosTemp.toPath(), new File(nomeArquivo).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (indiceTemp.exists()) {
+            Files.move(indiceTemp.toPath(), new File(IndiceSequencial.caminhoIndice(nomeEntidade)).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try (RandomAccessFile log = new RandomAccessFile(IndiceSequencial.caminhoLog(nomeEntidade), "rw")) {
+            log.setLength(0);
+        }
+        try (RandomAccessFile log = new RandomAccessFile(caminhoLivres(), "rw")) {
+            log.setLength(0);
+        }
+        marcador.delete();
+    }
+
+    // Garante que o mapeamento cubra o arquivo até a posição fim (exclusiva).
+    // As escritas continuam pelo RandomAccessFile; como o mapeamento compartilha
+    // as mesmas páginas do sistema operacional, ele enxerga os dados gravados,
+    // bastando remapear quando o arquivo cresce além da área mapeada.
+    // Retorna false se o mapeamento não puder ser usado (arquivo acima de 2 GiB).
+    private boolean garantirMapeamento(long fim) throws Exception {
+        if (estado.mapa != null && fim <= estado.mapa.capacity()) {
+            return true;
+        }
+        long tamanho = estado.arquivo.length();
+        if (fim > tamanho || tamanho > Integer.MAX_VALUE) {
+            return false;
+        }
+        FileChannel canal = estado.arquivo.getChannel();
+        estado.mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanho);
+        return true;
+    }
+
+    // O mapeamento (assim como o FileChannel) lê o arquivo em disco, que não
+    // contém as alterações de uma transação ainda não confirmada
+    private boolean usarMapeamento() {
+        return leituraMapeada && !estado.arquivo.temAlteracoesPendentes();
+    }
+
+    // Lê o registro (lápide, tamanho e dados) que começa em endereco.
+    // Retorna null se o registro estiver marcado como excluído.
+    private byte[] lerRegistro(long endereco) throws Exception {
+        if (usarMapeamento() && garantirMapeamento(endereco + 3)) {
+            int posicao = (int) endereco;
+            if (estado.mapa.get(posicao) != ' ') {
+                return null;
+            }
+            short tamanho = estado.mapa.getShort(posicao + 1);
+            if (garantirMapeamento(endereco + 3 + tamanho)) {
+                byte[] dados = new byte[tamanho];
+                ByteBuffer leitura = estado.mapa.duplicate();
+                leitura.position(posicao + 3);
+                leitura.get(dados);
+                return dados;
+            }
+        }
 
-        if (arquivo.length() < TAM_CABECALHO) {
-            arquivo.writeInt(0);    // Último ID usado
-            arquivo.writeLong(-1);  // Lista de registros excluídos
+        // Leituras posicionais: o ponteiro do arquivo é compartilhado pelas
+        // instâncias abertas sobre ele
+        byte[] cabecalho = new byte[3];
+        if (estado.arquivo.lerEm(endereco, cabecalho, 0, 3) < 3 || cabecalho[0] != ' ') {
+            return null; // Registro foi excluído
         }
+
+        short tamanho = (short) (((cabecalho[1] & 0xFF) << 8) | (cabecalho[2] & 0xFF));
+        byte[] dados = new byte[tamanho];
+        estado.arquivo.lerEm(endereco + 3, dados, 0, tamanho);
+        return dados;
     }
 
+    // Inclusão, exclusão e alteração alteram dados, índice e espaços livres
+    // juntos, em uma transação (ou na transação do chamador, se houver uma)
     public int create(T obj) throws Exception {
-        arquivo.seek(0);
-        int novoID = arquivo.readInt() + 1;
-        arquivo.seek(0);
-        arquivo.writeInt(novoID);
+        return LogTransacoes.getInstance().executar(() -> incluir(obj));
+    }
+
+    /**
+     * Inclui vários registros de uma vez: os IDs são reservados com uma única
+     * atualização do cabeçalho, todos os registros são acrescentados ao final
+     * do arquivo em uma única escrita e o índice recebe as entradas em lote.
+     * @return IDs atribuídos, na ordem da lista
+     */
+    public int[] createAll(java.util.List<T> objs) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> incluirTodos(objs));
+    }
+
+    public boolean delete(int id) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> excluir(id));
+    }
+
+    public boolean update(T novoObj) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> alterar(novoObj));
+    }
+
+    private int incluir(T obj) throws Exception {
+        estado.arquivo.seek(0);
+        int novoID = estado.arquivo.readInt() + 1;
+        estado.arquivo.seek(0);
+        estado.arquivo.writeInt(novoID);
         obj.setId(novoID);
         byte[] dados = obj.toByteArray();
 
-        long endereco = getDeleted(dados.length);
+        long endereco = estado.espacoLivre.alocar(dados.length);
         if (endereco == -1) {
-            arquivo.seek(arquivo.length());
-            endereco = arquivo.getFilePointer();
-            arquivo.writeByte(' ');  // Lápide
-            arquivo.writeShort(dados.length);
-            arquivo.write(dados);
+            estado.arquivo.seek(estado.arquivo.length());
+            endereco = estado.arquivo.getFilePointer();
+            estado.arquivo.writeByte(' ');  // Lápide
+            estado.arquivo.writeShort(dados.length);
+            estado.arquivo.write(dados);
         } else {
-            arquivo.seek(endereco);
-            arquivo.writeByte(' ');  // Remove a lápide
-            arquivo.skipBytes(2);
-            arquivo.write(dados);
+            estado.arquivo.seek(endereco);
+            estado.arquivo.writeByte(' ');  // Remove a lápide
+            estado.arquivo.skipBytes(2);
+            estado.arquivo.write(dados);
         }
         
         // Adicionar entrada no índice sequencial
-        indice.inserir(obj.getId(), endereco);
+        estado.indice.inserir(obj.getId(), endereco);
         
         return obj.getId();
     }
 
+    // Leituras e varreduras são feitas com a trava das transações, para não
+    // enxergar o estado intermediário (índice, páginas) de outra thread
     public T read(int id) throws Exception {
+        return LogTransacoes.getInstance().ler(() -> ler(id));
+    }
+
+    private T ler(int id) throws Exception {
         // Buscar endereço no índice primeiro (busca binária O(log n))
-        long endereco = indice.buscar(id);
+        long endereco = estado.indice.buscar(id);
         if (endereco == -1) {
             return null; // Não encontrado no índice
         }
         
         // Ir diretamente ao endereço no arquivo (acesso direto O(1))
-        arquivo.seek(endereco);
-        byte lapide = arquivo.readByte();
-        if (lapide != ' ') {
+        byte[] dados = lerRegistro(endereco);
+        if (dados == null) {
             return null; // Registro foi excluído
         }
         
-        short tamanho = arquivo.readShort();
-        byte[] dados = new byte[tamanho];
-        arquivo.read(dados);
-        
         T obj = construtor.newInstance();
         obj.fromByteArray(dados);
         return obj;
     }
 
-    public boolean delete(int id) throws Exception {
+    private int[] incluirTodos(java.util.List<T> objs) throws Exception {
+        int[] ids = new int[objs.size()];
+        long[] enderecos = new long[objs.size()];
+        if (objs.isEmpty()) {
+            return ids;
+        }
+
+        estado.arquivo.seek(0);
+        int ultimoID = estado.arquivo.readInt();
+        long endereco = estado.arquivo.length();
+
+        ByteArrayOutputStream registros = new ByteArrayOutputStream();
+        DataOutputStream saida = new DataOutputStream(registros);
+        for (int i = 0; i < ids.length; i++) {
+            T obj = objs.get(i);
+            obj.setId(++ultimoID);
+            byte[] dados = obj.toByteArray();
+            saida.writeByte(' ');  // Lápide
+            saida.writeShort(dados.length);
+            saida.write(dados);
+
+            ids[i] = ultimoID;
+            enderecos[i] = endereco;
+            endereco += 3 + dados.length;
+        }
+
+        estado.arquivo.seek(estado.arquivo.length());
+        estado.arquivo.write(registros.toByteArray());
+        estado.arquivo.seek(0);
+        estado.arquivo.writeInt(ultimoID);
+
+        estado.indice.inserirTodos(ids, enderecos);
+        return ids;
+    }
+
+    private boolean excluir(int id) throws Exception {
         // Buscar endereço no índice
-        long endereco = indice.buscar(id);
+        long endereco = estado.indice.buscar(id);
         if (endereco == -1) {
             return false; // Não encontrado
         }
         
         // Verificar se o registro ainda existe
-        arquivo.seek(endereco);
-        byte lapide = arquivo.readByte();
+        estado.arquivo.seek(endereco);
+        byte lapide = estado.arquivo.readByte();
         if (lapide != ' ') {
             return false; // Já foi excluído
         }
         
-        short tamanho = arquivo.readShort();
+        short tamanho = estado.arquivo.readShort();
         
         // Marcar como excluído no arquivo de dados
-        arquivo.seek(endereco);
-        arquivo.writeByte('*');
-        addDeleted(tamanho, endereco);
+        estado.arquivo.seek(endereco);
+        estado.arquivo.writeByte('*');
+        estado.espacoLivre.liberar(tamanho, endereco);
         
         // Remover do índice
-        indice.remover(id);
+        estado.indice.remover(id);
         
         return true;
     }
 
-    public boolean update(T novoObj) throws Exception {
+    private boolean alterar(T novoObj) throws Exception {
         int id = novoObj.getId();
         
         // Buscar endereço atual no índice
-        long enderecoAtual = indice.buscar(id);
+        long enderecoAtual = estado.indice.buscar(id);
         if (enderecoAtual == -1) {
             return false; // Registro não encontrado
         }
         
         // Verificar se o registro ainda existe
-        arquivo.seek(enderecoAtual);
-        byte lapide = arquivo.readByte();
+        estado.arquivo.seek(enderecoAtual);
+        byte lapide = estado.arquivo.readByte();
         if (lapide != ' ') {
             return false; // Registro foi excluído
         }
         
-        short tamanhoAtual = arquivo.readShort();
+        short tamanhoAtual = estado.arquivo.readShort();
         byte[] novosDados = novoObj.toByteArray();
         short novoTam = (short) novosDados.length;
 
         if (novoTam <= tamanhoAtual) {
             // Cabe no espaço atual - sobrescrever
-            arquivo.seek(enderecoAtual + 3);
-            arquivo.write(novosDados);
+            estado.arquivo.seek(enderecoAtual + 3);
+            estado.arquivo.write(novosDados);
         } else {
             // Não cabe - marcar como excluído e criar novo registro
-            arquivo.seek(enderecoAtual);
-            arquivo.writeByte('*');
-            addDeleted(tamanhoAtual, enderecoAtual);
+            estado.arquivo.seek(enderecoAtual);
+            estado.arquivo.writeByte('*');
+            estado.espacoLivre.liberar(tamanhoAtual, enderecoAtual);
 
             // Encontrar novo espaço
-            long novoEndereco = getDeleted(novosDados.length);
+            long novoEndereco = estado.espacoLivre.alocar(novosDados.length);
             if (novoEndereco == -1) {
-                arquivo.seek(arquivo.length());
-                novoEndereco = arquivo.getFilePointer();
-                arquivo.writeByte(' ');
-                arquivo.writeShort(novoTam);
-                arquivo.write(novosDados);
+                estado.arquivo.seek(estado.arquivo.length());
+                novoEndereco = estado.arquivo.getFilePointer();
+                estado.arquivo.writeByte(' ');
+                estado.arquivo.writeShort(novoTam);
+                estado.arquivo.write(novosDados);
             } else {
-                arquivo.seek(novoEndereco);
-                arquivo.writeByte(' ');
-                arquivo.skipBytes(2);
-                arquivo.write(novosDados);
+                estado.arquivo.seek(novoEndereco);
+                estado.arquivo.writeByte(' ');
+                estado.arquivo.skipBytes(2);
+                estado.arquivo.write(novosDados);
             }
             
             // Atualizar índice com novo endereço
-            indice.atualizar(id, novoEndereco);
+            estado.indice.atualizar(id, novoEndereco);
         }
         
         return true;
     }
 
-    private void addDeleted(int tamanhoEspaco, long enderecoEspaco) throws Exception {
-        long posicao = 4; // Posição após o int do último ID
-        arquivo.seek(posicao);
-        long endereco = arquivo.readLong();
-        long proximo;
+    // Cria uma varredura sequencial sobre todos os registros do arquivo,
+    // usando o mapeamento quando disponível ou leituras em blocos
+    private VarreduraArquivo novaVarredura() throws Exception {
+        long fim = estado.arquivo.length();
+        if (usarMapeamento() && garantirMapeamento(fim)) {
+            return new VarreduraArquivo(estado.mapa, TAM_CABECALHO, fim);
+        }
+        return new VarreduraArquivo(estado.arquivo, TAM_CABECALHO, fim);
+    }
 
-        if (endereco == -1) {
-            arquivo.seek(4); // Posição do ponteiro para lista de excluídos
-            arquivo.writeLong(enderecoEspaco);
-            arquivo.seek(enderecoEspaco + 3);
-            arquivo.writeLong(-1);
-        } else {
-            do {
-                arquivo.seek(endereco + 1);
-                int tamanho = arquivo.readShort();
-                proximo = arquivo.readLong();
-
-                if (tamanho > tamanhoEspaco) {
-                    if (posicao == 4) // Se estamos no início da lista de excluídos
-                        arquivo.seek(posicao);
-                    else
-                        arquivo.seek(posicao + 3);
-                    arquivo.writeLong(enderecoEspaco);
-                    arquivo.seek(enderecoEspaco + 3);
-                    arquivo.writeLong(endereco);
-                    break;
-                }
+    private T construir(byte[] dados) throws Exception {
+        T obj = construtor.newInstance();
+        obj.fromByteArray(dados);
+        return obj;
+    }
 
-                if (proximo == -1) {
-                    arquivo.seek(endereco + 3);
-                    arquivo.writeLong(enderecoEspaco);
-                    arquivo.seek(enderecoEspaco + 3);
-                    arquivo.writeLong(-1);
-                    break;
-                }
+    // Método para busca sequencial quando necessário (para outros campos que não a PK)
+    public T findBy(java.util.function.Predicate<T> condition) throws Exception {
+        return LogTransacoes.getInstance().ler(() -> buscarPrimeiro(condition));
+    }
 
-                posicao = endereco;
-                endereco = proximo;
-            } while (endereco != -1);
+    private T buscarPrimeiro(java.util.function.Predicate<T> condition) throws Exception {
+        VarreduraArquivo varredura = novaVarredura();
+        while (varredura.proximo()) {
+            T obj = construir(varredura.getDados());
+            if (condition.test(obj)) {
+                return obj;  // Encerra a varredura no primeiro encontrado
+            }
         }
+        return null;
     }
 
-    private long getDeleted(int tamanhoNecessario) throws Exception {
-        long posicao = 4; // Posição após o int do último ID
-        arquivo.seek(posicao);
-        long endereco = arquivo.readLong();
-        long proximo;
-        int tamanho;
+    // Método para buscar TODOS os registros que atendem a um critério
+    public java.util.List<T> findAll(java.util.function.Predicate<T> condition) throws Exception {
+        return findAll(null, condition);
+    }
 
-        while (endereco != -1) {
-            arquivo.seek(endereco + 1);
-            tamanho = arquivo.readShort();
-            proximo = arquivo.readLong();
+    /**
+     * Busca todos os registros que atendem a um critério, com um filtro prévio
+     * aplicado sobre os bytes do registro. Registros rejeitados pelo filtro de
+     * bytes não são desserializados (nenhum objeto é criado para eles).
+     * @param filtroBytes teste sobre os dados brutos do registro (null = aceita todos)
+     * @param condition teste sobre o objeto desserializado
+     */
+    public java.util.List<T> findAll(java.util.function.Predicate<byte[]> filtroBytes,
+                                     java.util.function.Predicate<T> condition) throws Exception {
+        return LogTransacoes.getInstance().ler(() -> buscarTodos(filtroBytes, condition));
+    }
 
-            if (tamanho > tamanhoNecessario) {
-                if (posicao == 4) // Se estamos no início da lista de excluídos
-                    arquivo.seek(posicao);
-                else
-                    arquivo.seek(posicao + 3);
-                arquivo.writeLong(proximo);
-                return endereco;
+    private java.util.List<T> buscarTodos(java.util.function.Predicate<byte[]> filtroBytes,
+                                          java.util.function.Predicate<T> condition) throws Exception {
+        java.util.List<T> resultado = new java.util.ArrayList<>();
+        VarreduraArquivo varredura = novaVarredura();
+        while (varredura.proximo()) {
+            if (filtroBytes != null && !filtroBytes.test(varredura.getDados())) {
+                continue;
+            }
+            T obj = construir(varredura.getDados());
+            if (condition.test(obj)) {
+                resultado.add(obj);  // Adiciona TODOS os que atendem ao critério
             }
-            posicao = endereco;
-            endereco = proximo;
         }
-        return -1;
+        return resultado;
     }
 
-    // Método para busca sequencial quando necessário (para outros campos que não a PK)
-    public T findBy(java.util.function.Predicate<T> condition) throws Exception {
-        arquivo.seek(TAM_CABECALHO);
-        while (arquivo.getFilePointer() < arquivo.length()) {
-            byte lapide = arquivo.readByte();
-            short tamanho = arquivo.readShort();
-            byte[] dados = new byte[tamanho];
-            arquivo.read(dados);
+    /**
+     * Versão paralela do findAll. Os endereços dos registros vêm do índice
+     * sequencial; ordenados, eles dividem o arquivo em partições contíguas que
+     * são lidas, desserializadas e filtradas no pool ForkJoin comum. Os
+     * resultados são reunidos na ordem do arquivo, como no findAll.
+     * Para arquivos pequenos, ou dentro de uma transação, usa a varredura
+     * sequencial. A condição é avaliada nas threads do pool, que não podem
+     * acessar arquivos enquanto a thread que chama detém a trava de leitura.
+     */
+    public java.util.List<T> findAllParalelo(java.util.function.Predicate<T> condition) throws Exception {
+        return LogTransacoes.getInstance().ler(() -> buscarTodosParalelo(condition));
+    }
 
-            if (lapide == ' ') {
-                T obj = construtor.newInstance();
-                obj.fromByteArray(dados);
-                if (condition.test(obj)) {
-                    return obj;
-                }
+    private java.util.List<T> buscarTodosParalelo(java.util.function.Predicate<T> condition) throws Exception {
+        long[] enderecos = estado.indice.getEnderecos();
+        // As threads do pool não enxergam (e não podem aguardar) a transação
+        // da thread que chama
+        if (enderecos.length < LIMIAR_PARALELO || LogTransacoes.getInstance().emTransacao()
+                || estado.arquivo.temAlteracoesPendentes()) {
+            return buscarTodos(null, condition);
+        }
+        java.util.Arrays.sort(enderecos);
+
+        long fimArquivo = estado.arquivo.length();
+        ByteBuffer mapeado = (usarMapeamento() && garantirMapeamento(fimArquivo)) ? estado.mapa : null;
+
+        int processadores = Runtime.getRuntime().availableProcessors();
+        long bytes = fimArquivo - enderecos[0];
+        int partes = (int) Math.max(processadores * 4L, bytes / TAM_MAX_PARTICAO + 1);
+        partes = Math.min(partes, enderecos.length);
+        final int totalPartes = partes;
+
+        try {
+            java.util.List<java.util.List<T>> parciais = java.util.stream.IntStream.range(0, totalPartes)
+                .parallel()
+                .mapToObj(p -> {
+                    int inicio = (int) ((long) p * enderecos.length / totalPartes);
+                    int fim = (int) ((long) (p + 1) * enderecos.length / totalPartes);
+                    try {
+                        return varrerParticao(enderecos, inicio, fim, fimArquivo, mapeado, condition);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                })
+                .collect(java.util.stream.Collectors.toList());
+
+            java.util.List<T> resultado = new java.util.ArrayList<>();
+            for (java.util.List<T> parcial : parciais) {
+                resultado.addAll(parcial);
             }
+            return resultado;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
-        return null;
     }
 
-    // Método para buscar TODOS os registros que atendem a um critério
-    public java.util.List<T> findAll(java.util.function.Predicate<T> condition) throws Exception {
+    // Lê os registros enderecos[inicio..fim) de uma partição. A partição vai do
+    // primeiro endereço até o início da partição seguinte (ou o fim do arquivo)
+    // e é obtida com uma única leitura posicional (ou uma fatia do mapeamento).
+    private java.util.List<T> varrerParticao(long[] enderecos, int inicio, int fim, long fimArquivo,
+                                             ByteBuffer mapeado, java.util.function.Predicate<T> condition) throws Exception {
+        long base = enderecos[inicio];
+        long limite = fim < enderecos.length ? enderecos[fim] : fimArquivo;
+
+        ByteBuffer trecho;
+        if (mapeado != null) {
+            trecho = mapeado.duplicate();
+            trecho.limit((int) limite);
+            base = 0; // no mapeamento, o índice no buffer é o próprio endereço
+        } else {
+            trecho = ByteBuffer.allocate((int) (limite - base));
+            FileChannel canal = estado.arquivo.getChannel();
+            while (trecho.hasRemaining()) {
+                // Leitura posicional: segura entre threads e não move o ponteiro do arquivo
+                if (canal.read(trecho, base + trecho.position()) < 0) {
+                    break;
+                }
+            }
+            trecho.flip();
+        }
+
         java.util.List<T> resultado = new java.util.ArrayList<>();
-        arquivo.seek(TAM_CABECALHO);
-        
-        while (arquivo.getFilePointer() < arquivo.length()) {
-            byte lapide = arquivo.readByte();
-            short tamanho = arquivo.readShort();
+        for (int i = inicio; i < fim; i++) {
+            int posicao = (int) (enderecos[i] - base);
+            if (posicao + 3 > trecho.limit() || trecho.get(posicao) != ' ') {
+                continue; // registro excluído desde a leitura do índice
+            }
+            short tamanho = trecho.getShort(posicao + 1);
+            if (posicao + 3 + tamanho > trecho.limit()) {
+                continue;
+            }
             byte[] dados = new byte[tamanho];
-            arquivo.read(dados);
+            trecho.position(posicao + 3);
+            trecho.get(dados);
+            T obj = construir(dados);
+            if (condition.test(obj)) {
+                resultado.add(obj);
+            }
+        }
+        return resultado;
+    }
+
+    // Iterador preguiçoso sobre os registros válidos, na ordem do arquivo.
+    // Os registros são lidos e desserializados sob demanda, então interromper
+    // a iteração interrompe também a leitura do arquivo.
+    private java.util.Iterator<T> iterator() throws Exception {
+        VarreduraArquivo varredura = novaVarredura();
+        return new java.util.Iterator<T>() {
+            private T proximo;
+
+            @Override
+            public boolean hasNext() {
+                if (proximo == null) {
+                    try {
+                        if (varredura.proximo()) {
+                            proximo = construir(varredura.getDados());
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException("Erro ao varrer " + nomeArquivo, e);
+                    }
+                }
+                return proximo != null;
+            }
 
-            if (lapide == ' ') {
-                T obj = construtor.newInstance();
-                obj.fromByteArray(dados);
-                if (condition.test(obj)) {
-                    resultado.add(obj);  // Adiciona TODOS os que atendem ao critério
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new java.util.NoSuchElementException();
                 }
+                T obj = proximo;
+                proximo = null;
+                return obj;
             }
+        };
+    }
+
+    // Stream sequencial e preguiçoso sobre os registros válidos (ver iterator())
+    public java.util.stream.Stream<T> stream() throws Exception {
+        return java.util.stream.StreamSupport.stream(
+            java.util.Spliterators.spliteratorUnknownSize(iterator(),
+                java.util.Spliterator.ORDERED | java.util.Spliterator.NONNULL),
+            false);
+    }
+
+    /**
+     * Compacta o arquivo de dados: os registros válidos são regravados em
+     * sequência, na ordem do arquivo, em um novo arquivo sem registros
+     * excluídos, e o índice sequencial é reconstruído com os novos endereços.
+     *
+     * Os novos dados e o novo índice são gravados em arquivos temporários e
+     * forçados para o disco; só então um marcador é criado e os arquivos são
+     * trocados por renomeação. Uma queda antes do marcador mantém os arquivos
+     * originais; depois dele, a troca é concluída na próxima abertura.
+     *
+     * A compactação é feita com a trava das transações: as demais threads
+     * aguardam o fim dela para ler ou gravar. As instâncias abertas sobre o
+     * mesmo arquivo compartilham o estado e passam todas a usar os novos
+     * arquivos. Iteradores e streams obtidos antes da compactação não devem
+     * ser usados depois dela.
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar() throws Exception {
+        return compactar(null);
+    }
+
+    /**
+     * Compacta o arquivo de dados, aplicando uma conversão aos bytes de cada
+     * registro válido ao regravá-lo (ex.: migração para um formato novo).
+     * A conversão não pode alterar o id do registro.
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar(java.util.function.UnaryOperator<byte[]> conversao) throws Exception {
+        LogTransacoes logTransacoes = LogTransacoes.getInstance();
+        if (logTransacoes.emTransacao()) {
+            throw new IllegalStateException("A compactação não pode ser feita dentro de uma transação");
         }
-        return resultado;
+        // Do checkpoint até a reabertura dos arquivos, nenhuma outra thread
+        // pode gravar (a gravação se perderia) nem ler (os arquivos são fechados)
+        return logTransacoes.ler(() -> compactarComTrava(logTransacoes, conversao));
+    }
+
+    private long compactarComTrava(LogTransacoes logTransacoes,
+                                   java.util.function.UnaryOperator<byte[]> conversao) throws Exception {
+        // Os arquivos serão substituídos: nada do log pode se referir a eles
+        logTransacoes.checkpoint();
+
+        long tamanhoAntigo = estado.arquivo.length();
+
+        // Endereço -> id, a partir do índice (evita desserializar os registros)
+        int[] idsIndice = estado.indice.getIds();
+        long[] enderecosIndice = estado.indice.getEnderecos();
+        java.util.Map<Long, Integer> idPorEndereco = new java.util.HashMap<>(idsIndice.length * 2);
+        for (int i = 0; i < idsIndice.length; i++) {
+            idPorEndereco.put(enderecosIndice[i], idsIndice[i]);
+        }
+
+        File dadosTemp = new File(nomeArquivo + ".tmp");
+        File indiceTemp = new File(IndiceSequencial.caminhoIndice(nomeEntidade) + ".tmp");
+        int[] novosIds = new int[idsIndice.length];
+        long[] novosEnderecos = new long[idsIndice.length];
+        int quantidade = 0;
+
+        estado.arquivo.seek(0);
+        int ultimoId = estado.arquivo.readInt();
+        int versao = estado.arquivo.readInt();
+        FileOutputStream fos = new FileOutputStream(dadosTemp);
+        try (DataOutputStream saida = new DataOutputStream(
+                new BufferedOutputStream(fos, VarreduraArquivo.TAM_BLOCO))) {
+            saida.writeInt(ultimoId);
+            saida.writeInt(versao);
+            saida.writeInt(-1);
+
+            long posicao = TAM_CABECALHO;
+            VarreduraArquivo varredura = novaVarredura();
+            while (varredura.proximo()) {
+                byte[] dados = varredura.getDados();
+                Integer id = idPorEndereco.get(varredura.getEndereco());
+                if (conversao != null) {
+                    dados = conversao.apply(dados);
+                }
+                if (id == null) {
+                    id = construir(dados).getId(); // registro válido fora do índice
+                }
+                if (quantidade == novosIds.length) {
+                    novosIds = java.util.Arrays.copyOf(novosIds, quantidade * 2 + 1);
+                    novosEnderecos = java.util.Arrays.copyOf(novosEnderecos, novosIds.length);
+                }
+                novosIds[quantidade] = id;
+                novosEnderecos[quantidade] = posicao;
+                quantidade++;
+
+                saida.writeByte(' ');
+                saida.writeShort(dados.length);
+                saida.write(dados);
+                posicao += 3 + dados.length;
+            }
+            saida.flush();
+            fos.getFD().sync();
+        }
+
+        IndiceSequencial.gravarSnapshot(indiceTemp.getPath(),
+            java.util.Arrays.copyOf(novosIds, quantidade),
+            java.util.Arrays.copyOf(novosEnderecos, quantidade));
+
+        File marcador = new File(caminhoMarcador());
+        try (FileOutputStream m = new FileOutputStream(marcador)) {
+            m.getFD().sync();
+        }
+
+        // O arquivo antigo precisa estar fechado para ser substituído
+        estado.indice.close();
+        estado.mapa = null;
+        estado.arquivo.close();
+
+        efetivarCompactacao(dadosTemp, indiceTemp, marcador);
+
+        estado.arquivo = new ArquivoTransacional(nomeArquivo);
+        estado.indice = new IndiceSequencial(nomeEntidade);
+        estado.espacoLivre.reiniciar(estado.arquivo);
+
+        return tamanhoAntigo - estado.arquivo.length();
+    }
+
+    /**
+     * Versão do formato dos registros, gravada no cabeçalho pela entidade
+     * (-1 em arquivos que nunca tiveram uma versão gravada)
+     */
+    public int getVersaoFormato() throws Exception {
+        estado.arquivo.seek(4);
+        return estado.arquivo.readInt();
+    }
+
+    public void setVersaoFormato(int versao) throws Exception {
+        estado.arquivo.seek(4);
+        estado.arquivo.writeInt(versao);
     }
 
     // Método para obter estatísticas do índice
     public String getEstatisticasIndice() {
-        return "Registros no índice: " + indice.getTamanho();
+        return "Registros no índice: " + estado.indice.getTamanho();
     }
 
+    // Os arquivos só são fechados quando a última instância sobre eles é fechada
     public void close() throws Exception {
-        if (indice != null) {
-            indice.close();
+        synchronized (abertos) {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            if (--estado.instancias > 0) {
+                return;
+            }
+            abertos.remove(estado.chave);
         }
-        arquivo.close();
+        estado.indice.close();
+        estado.espacoLivre.close();
+        estado.mapa = null;
+        estado.arquivo.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,279 @@
+package dao;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RandomAccessFile que participa das transações do LogTransacoes.
+ *
+ * Fora de uma transação, as operações vão direto ao arquivo, como em um
+ * RandomAccessFile comum. Dentro de uma transação, as escritas são feitas em
+ * páginas mantidas em memória e as leituras enxergam essas páginas; nada é
+ * gravado no arquivo antes de a transação estar no log. As páginas pertencem
+ * ao arquivo (e não à instância), então todas as instâncias abertas sobre o
+ * mesmo arquivo enxergam as alterações pendentes.
+ *
+ * Os métodos finais de RandomAccessFile (readInt, writeLong, readFully, ...)
+ * são implementados sobre read()/write(), sobrescritos aqui. O ponteiro do
+ * arquivo continua sendo o do RandomAccessFile, mesmo dentro da transação.
+ *
+ * As páginas só podem ser usadas pela thread da transação: cada acesso é
+ * feito com a trava das transações, então as demais threads aguardam o fim
+ * da transação em andamento (inclusive a aplicação das páginas ao arquivo).
+ */
+class ArquivoTransacional extends RandomAccessFile {
+    private final LogTransacoes log;
+    private final Paginas paginas;
+
+    ArquivoTransacional(String caminho) throws Exception {
+        super(caminho, "rw");
+        this.log = LogTransacoes.getInstance();
+        this.paginas = log.registrar(caminho);
+    }
+
+    /**
+     * Indica se há alterações ainda não confirmadas neste arquivo. Nesse caso,
+     * leituras que não passam por este objeto (mapeamento, FileChannel) não
+     * enxergam o conteúdo atual.
+     */
+    boolean temAlteracoesPendentes() {
+        log.travar();
+        try {
+            return paginas.ativo;
+        } finally {
+            log.liberar();
+        }
+    }
+
+    // Páginas a usar em uma escrita: as da transação em andamento, ou null
+    // se a escrita deve ir direto ao arquivo
+    private Paginas paraEscrita() throws IOException {
+        if (!log.emTransacao()) {
+            log.antesDeEscritaDireta();
+            return null;
+        }
+        if (!paginas.ativo) {
+            log.participar(paginas, super.length());
+        }
+        return paginas;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) <= 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        log.travar();
+        try {
+            if (!paginas.ativo) {
+                return super.read(b, off, len);
+            }
+            long posicao = getFilePointer();
+            int lidos = paginas.ler(getChannel(), posicao, b, off, len);
+            if (lidos > 0) {
+                seek(posicao + lidos);
+            }
+            return lidos;
+        } finally {
+            log.liberar();
+        }
+    }
+
+    /**
+     * Lê a partir de posicao sem usar nem mover o ponteiro do arquivo, que é
+     * compartilhado por quem usa a instância
+     * @return bytes lidos, ou -1 se posicao estiver no fim do arquivo
+     */
+    int lerEm(long posicao, byte[] b, int off, int len) throws IOException {
+        log.travar();
+        try {
+            if (paginas.ativo) {
+                return paginas.ler(getChannel(), posicao, b, off, len);
+            }
+            ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+            while (bb.hasRemaining()) {
+                if (getChannel().read(bb, posicao + (bb.position() - off)) < 0) {
+                    break;
+                }
+            }
+            int lidos = bb.position() - off;
+            return lidos == 0 && len > 0 ? -1 : lidos;
+        } finally {
+            log.liberar();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        log.travar();
+        try {
+            Paginas p = paraEscrita();
+            if (p == null) {
+                super.write(b, off, len);
+                return;
+            }
+            long posicao = getFilePointer();
+            p.escrever(getChannel(), posicao, b, off, len);
+            seek(posicao + len);
+        } finally {
+            log.liberar();
+        }
+    }
+
+    @Override
+    public long length() throws IOException {
+        log.travar();
+        try {
+            return paginas.ativo ? paginas.tamanho : super.length();
+        } finally {
+            log.liberar();
+        }
+    }
+
+    @Override
+    public void setLength(long novoTamanho) throws IOException {
+        log.travar();
+        try {
+            Paginas p = paraEscrita();
+            if (p == null) {
+                super.setLength(novoTamanho);
+                return;
+            }
+            p.truncar(getChannel(), novoTamanho);
+            if (getFilePointer() > novoTamanho) {
+                seek(novoTamanho);
+            }
+        } finally {
+            log.liberar();
+        }
+    }
+
+    /**
+     * Páginas alteradas de um arquivo durante a transação em andamento.
+     * Uma página ausente do mapa tem o conteúdo do arquivo em disco, exceto
+     * a partir de limiteFisico (ponto em que o arquivo foi truncado), onde o
+     * conteúdo é zero. Só é acessada com a trava das transações.
+     */
+    static class Paginas {
+        static final int TAM_PAGINA = 4096;
+
+        final String caminho;
+        final Map<Long, byte[]> alteradas = new HashMap<>();
+        long tamanho;        // tamanho lógico do arquivo
+        long limiteFisico;   // bytes do arquivo em disco ainda válidos
+        boolean ativo;       // participa da transação em andamento
+
+        Paginas(String caminho) {
+            this.caminho = caminho;
+        }
+
+        void ativar(long tamanhoFisico) {
+            tamanho = tamanhoFisico;
+            limiteFisico = tamanhoFisico;
+            ativo = true;
+        }
+
+        void descartar() {
+            alteradas.clear();
+            ativo = false;
+        }
+
+        // Lê do disco os bytes [posicao, posicao + n) que ainda são válidos;
+        // o restante do intervalo fica zerado
+        private void lerDoDisco(FileChannel canal, long posicao, byte[] destino, int off, int n) throws IOException {
+            int validos = (int) Math.max(0, Math.min(n, limiteFisico - posicao));
+            ByteBuffer bb = ByteBuffer.wrap(destino, off, validos);
+            while (bb.hasRemaining()) {
+                if (canal.read(bb, posicao + (bb.position() - off)) < 0) {
+                    break;
+                }
+            }
+            java.util.Arrays.fill(destino, bb.position(), off + n, (byte) 0);
+        }
+
+        private byte[] pagina(FileChannel canal, long numero) throws IOException {
+            byte[] pagina = alteradas.get(numero);
+            if (pagina == null) {
+                pagina = new byte[TAM_PAGINA];
+                lerDoDisco(canal, numero * TAM_PAGINA, pagina, 0, TAM_PAGINA);
+                alteradas.put(numero, pagina);
+            }
+            return pagina;
+        }
+
+        int ler(FileChannel canal, long posicao, byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (posicao >= tamanho) {
+                return -1;
+            }
+            int total = (int) Math.min(len, tamanho - posicao);
+            int lidos = 0;
+            while (lidos < total) {
+                long p = posicao + lidos;
+                long numero = p / TAM_PAGINA;
+                int deslocamento = (int) (p % TAM_PAGINA);
+                int n = Math.min(TAM_PAGINA - deslocamento, total - lidos);
+                byte[] pagina = alteradas.get(numero);
+                if (pagina != null) {
+                    System.arraycopy(pagina, deslocamento, b, off + lidos, n);
+                } else {
+                    lerDoDisco(canal, p, b, off + lidos, n);
+                }
+                lidos += n;
+            }
+            return total;
+        }
+
+        void escrever(FileChannel canal, long posicao, byte[] b, int off, int len) throws IOException {
+            int escritos = 0;
+            while (escritos < len) {
+                long p = posicao + escritos;
+                int deslocamento = (int) (p % TAM_PAGINA);
+                int n = Math.min(TAM_PAGINA - deslocamento, len - escritos);
+                System.arraycopy(b, off + escritos, pagina(canal, p / TAM_PAGINA), deslocamento, n);
+                escritos += n;
+            }
+            tamanho = Math.max(tamanho, posicao + len);
+        }
+
+        void truncar(FileChannel canal, long novoTamanho) throws IOException {
+            if (novoTamanho < tamanho) {
+                // Bytes além do novo tamanho voltam a ser zero se o arquivo crescer
+                long primeira = novoTamanho / TAM_PAGINA;
+                alteradas.keySet().removeIf(numero -> numero > primeira);
+                int deslocamento = (int) (novoTamanho % TAM_PAGINA);
+                if (deslocamento > 0 && (alteradas.containsKey(primeira) || novoTamanho < limiteFisico)) {
+                    java.util.Arrays.fill(pagina(canal, primeira), deslocamento, TAM_PAGINA, (byte) 0);
+                } else if (deslocamento == 0) {
+                    alteradas.remove(primeira);
+                }
+                limiteFisico = Math.min(limiteFisico, novoTamanho);
+            }
+            tamanho = novoTamanho;
+        }
+    }
+}
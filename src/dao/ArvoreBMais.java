@@ -15,6 +15,12 @@ package dao;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.lang.reflect.Constructor;
 
 // Esta versão da árvore funciona apenas como um conjunto de par de chaves.
@@ -38,6 +44,42 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
     private boolean cresceu;
     private boolean diminuiu;
 
+    // Quantidade padrão de páginas mantidas em memória pelo pool
+    public static final int CAPACIDADE_POOL_PADRAO = 1024;
+
+    // Pool de páginas, compartilhado pelas instâncias abertas sobre o mesmo arquivo
+    private static final Map<String, PoolPaginas> pools = new HashMap<>();
+    private PoolPaginas pool;
+    // Páginas fixadas pela operação em andamento (create ou delete)
+    private ArrayList<Long> paginasFixadas = new ArrayList<>();
+
+    /**
+     * Páginas já desserializadas, por endereço, em ordem de uso (LRU).
+     * Uma página fixada está em uso por uma inclusão ou exclusão, que ainda
+     * vai alterá-la, e não sai do pool. Dentro de uma transação, uma página
+     * alterada fica apenas no pool (suja) e é gravada uma única vez, antes da
+     * confirmação; fora dela, é gravada imediatamente. Uma página suja que sai
+     * do pool também é gravada.
+     * O pool é compartilhado entre threads: toda consulta ou alteração dele
+     * (inclusive a reordenação LRU feita por uma simples leitura) acontece
+     * com a trava do log de transações.
+     */
+    static class PoolPaginas {
+        final int capacidade;
+        final LinkedHashMap<Long, Object> paginas = new LinkedHashMap<>(16, 0.75f, true);
+        final Map<Long, Integer> fixadas = new HashMap<>();
+        final Set<Long> sujas = new HashSet<>();
+
+        PoolPaginas(int capacidade) {
+            this.capacidade = capacidade;
+        }
+
+        void limpar() {
+            paginas.clear();
+            sujas.clear();
+        }
+    }
+
     // Esta classe representa uma página da árvore (folha ou não folha).
     private class Pagina {
 
@@ -144,6 +186,10 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
     // ------------------------------------------------------------------------------
 
     public ArvoreBMais(Constructor<T> c, int o, String na) throws Exception {
+        this(c, o, na, CAPACIDADE_POOL_PADRAO);
+    }
+
+    public ArvoreBMais(Constructor<T> c, int o, String na, int capacidadePool) throws Exception {
 
         // Inicializa os atributos da árvore
         construtor = c;
@@ -153,11 +199,119 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
         nomeArquivo = na;
 
         // Abre (ou cria) o arquivo, escrevendo uma raiz empty, se necessário.
-        arquivo = new RandomAccessFile(nomeArquivo, "rw");
+        arquivo = new ArquivoTransacional(nomeArquivo);
         if (arquivo.length() < 16) {
             arquivo.writeLong(-1); // raiz empty
             arquivo.writeLong(-1); // pointeiro lista excluídos
         }
+
+        String chave = new File(nomeArquivo).getCanonicalPath();
+        synchronized (pools) {
+            pool = pools.computeIfAbsent(chave, k -> new PoolPaginas(capacidadePool));
+        }
+    }
+
+    // Obtém a página do endereço, do pool ou do arquivo
+    @SuppressWarnings("unchecked")
+    private Pagina lerPagina(long endereco) throws Exception {
+        LogTransacoes log = LogTransacoes.getInstance();
+        log.travar();
+        try {
+            log.aoAbortar(pool, pool::limpar);
+            Pagina pa = (Pagina) pool.paginas.get(endereco);
+            if (pa != null)
+                return pa;
+            pa = new Pagina(construtor, ordem);
+            byte[] buffer = new byte[pa.TAMANHO_PAGINA];
+            arquivo.seek(endereco);
+            arquivo.read(buffer);
+            pa.fromByteArray(buffer);
+            guardarNoPool(endereco, pa);
+            return pa;
+        } finally {
+            log.liberar();
+        }
+    }
+
+    // Obtém a página e a mantém no pool até o fim da operação, que ainda vai
+    // alterá-la
+    private Pagina fixarPagina(long endereco) throws Exception {
+        LogTransacoes log = LogTransacoes.getInstance();
+        log.travar();
+        try {
+            Pagina pa = lerPagina(endereco);
+            pool.fixadas.merge(endereco, 1, Integer::sum);
+            paginasFixadas.add(endereco);
+            return pa;
+        } finally {
+            log.liberar();
+        }
+    }
+
+    // Libera as páginas fixadas pela operação
+    private void liberarPaginas() throws Exception {
+        LogTransacoes log = LogTransacoes.getInstance();
+        log.travar();
+        try {
+            for (long endereco : paginasFixadas) {
+                if (pool.fixadas.merge(endereco, -1, Integer::sum) == 0)
+                    pool.fixadas.remove(endereco);
+            }
+            paginasFixadas.clear();
+        } finally {
+            log.liberar();
+        }
+    }
+
+    // Registra a alteração de uma página. Uma página nova no final do arquivo
+    // é gravada imediatamente, para que o arquivo cresça e o próximo endereço
+    // livre seja outro.
+    private void gravarPagina(long endereco, Pagina pa) throws Exception {
+        LogTransacoes log = LogTransacoes.getInstance();
+        log.travar();
+        try {
+            guardarNoPool(endereco, pa);
+            if (log.emTransacao() && endereco < arquivo.length()) {
+                pool.sujas.add(endereco);
+                log.aoAbortar(pool, pool::limpar);
+                log.antesDeConfirmar(pool, this::gravarSujas);
+            } else {
+                pool.sujas.remove(endereco);
+                arquivo.seek(endereco);
+                arquivo.write(pa.toByteArray());
+            }
+        } finally {
+            log.liberar();
+        }
+    }
+
+    // Coloca a página no pool, retirando as menos usadas que não estão fixadas.
+    // Chamado com a trava do log de transações.
+    @SuppressWarnings("unchecked")
+    private void guardarNoPool(long endereco, Pagina pa) throws Exception {
+        pool.paginas.put(endereco, pa);
+        Iterator<Map.Entry<Long, Object>> it = pool.paginas.entrySet().iterator();
+        while (pool.paginas.size() > pool.capacidade && it.hasNext()) {
+            Map.Entry<Long, Object> maisAntiga = it.next();
+            if (pool.fixadas.containsKey(maisAntiga.getKey()))
+                continue;
+            if (pool.sujas.remove(maisAntiga.getKey())) {
+                arquivo.seek(maisAntiga.getKey());
+                arquivo.write(((Pagina) maisAntiga.getValue()).toByteArray());
+            }
+            it.remove();
+        }
+    }
+
+    // Grava no arquivo todas as páginas alteradas que ainda estão só no pool.
+    // Chamado antes da confirmação, com a trava do log de transações.
+    @SuppressWarnings("unchecked")
+    private void gravarSujas() throws Exception {
+        for (Long endereco : pool.sujas) {
+            arquivo.seek(endereco);
+            arquivo.write(((Pagina) pool.paginas.get(endereco)).toByteArray());
+        }
+        pool.sujas.clear();
     }
 
     // Testa se a árvore está empty. Uma árvore empty é identificada pela raiz == -1
@@ -201,11 +355,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
 
         // Reconstrói a página passada como referência a partir
         // do registro lido no arquivo
-        arquivo.seek(pagina);
-        Pagina pa = new Pagina(construtor, ordem);
-        byte[] buffer = new byte[pa.TAMANHO_PAGINA];
-        arquivo.read(buffer);
-        pa.fromByteArray(buffer);
+        Pagina pa = lerPagina(pagina);
 
         // Encontra o ponto em que a chave deve estar na página
         // Nesse primeiro passo, todas as chaves menores que a chave buscada
@@ -225,16 +375,14 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             while (elem==null || elem.compareTo(pa.elementos.get(i)) <= 0) {
 
                 if (elem==null || elem.compareTo(pa.elementos.get(i)) == 0)
-                    lista.add(pa.elementos.get(i));
+                    lista.add(pa.elementos.get(i).clone());
                 i++;
 
                 // Se chegar ao fim da folha, então avança para a folha seguinte
                 if (i == pa.elementos.size()) {
                     if (pa.proxima == -1)
                         break;
-                    arquivo.seek(pa.proxima);
-                    arquivo.read(buffer);
-                    pa.fromByteArray(buffer);
+                    pa = lerPagina(pa.proxima);
                     i = 0;
                 }
             }
@@ -253,9 +401,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             }
 
             // Lê a próxima folha
-            arquivo.seek(pa.proxima);
-            arquivo.read(buffer);
-            pa.fromByteArray(buffer);
+            pa = lerPagina(pa.proxima);
 
             // Testa se a chave é a primeira da próxima folha
             i = 0;
@@ -268,14 +414,12 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
                 // secundárias
                 while (elem.compareTo(pa.elementos.get(i)) <= 0) {
                     if (elem.compareTo(pa.elementos.get(i)) == 0)
-                        lista.add(pa.elementos.get(i));
+                        lista.add(pa.elementos.get(i).clone());
                     i++;
                     if (i == pa.elementos.size()) {
                         if (pa.proxima == -1)
                             break;
-                        arquivo.seek(pa.proxima);
-                        arquivo.read(buffer);
-                        pa.fromByteArray(buffer);
+                        pa = lerPagina(pa.proxima);
                         i = 0;
                     }
                 }
@@ -297,66 +441,134 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             return read1(elem, pa.filhos.get(i + 1));
     }
 
+    // Busca por intervalo. Retorna, em ordem, os elementos e tais que
+    // de <= e <= ate. Com uma chave composta, fixar a primeira chave e usar
+    // os valores mínimo e máximo da segunda faz uma busca por prefixo.
+    public ArrayList<T> readRange(T de, T ate) throws Exception {
+        ArrayList<T> lista = new ArrayList<>();
+        Iterator<T> it = iterator(de);
+        while (it.hasNext()) {
+            T elem = it.next();
+            if (ate != null && elem.compareTo(ate) > 0)
+                break;
+            lista.add(elem);
+        }
+        return lista;
+    }
+
+    // Percorre os elementos em ordem, a partir do primeiro maior ou igual a
+    // "de" (ou do primeiro da árvore, se "de" for null), seguindo a lista
+    // encadeada de folhas. Os elementos retornados são clones. A árvore não
+    // deve ser alterada durante o percurso.
+    public Iterator<T> iterator(T de) throws Exception {
+
+        // Desce até a folha em que estaria o primeiro elemento >= de. Na
+        // igualdade com um separador, desce pela esquerda: o elemento pode
+        // estar no fim dessa folha ou no início da seguinte.
+        arquivo.seek(0);
+        long pagina = arquivo.readLong();
+        Pagina folha = null;
+        int inicio = 0;
+        while (pagina != -1) {
+            Pagina pa = lerPagina(pagina);
+            int i = 0;
+            while (de != null && i < pa.elementos.size() && de.compareTo(pa.elementos.get(i)) > 0)
+                i++;
+            if (pa.filhos.get(0) == -1) {
+                folha = pa;
+                inicio = i;
+                break;
+            }
+            pagina = pa.filhos.get(i);
+        }
+
+        final Pagina primeira = folha;
+        final int posicao = inicio;
+        return new Iterator<T>() {
+            private Pagina pa = primeira;
+            private int i = posicao;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    // Pula folhas esgotadas (ou vazias)
+                    while (pa != null && i >= pa.elementos.size()) {
+                        pa = pa.proxima == -1 ? null : lerPagina(pa.proxima);
+                        i = 0;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("Erro ao ler a árvore B+: " + e.getMessage(), e);
+                }
+                return pa != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new java.util.NoSuchElementException();
+                return pa.elementos.get(i++).clone();
+            }
+        };
+    }
+
     // Inclusão de novos elementos na árvore. A inclusão é recursiva. A primeira
     // função chama a segunda recursivamente, passando a raiz como referência.
     // Eventualmente, a árvore pode crescer para cima.
     public boolean create(T elem) throws Exception {
+        try {
 
-        // Carrega a raiz
-        arquivo.seek(0);
-        long pagina;
-        pagina = arquivo.readLong();
-
-        // O processo de inclusão permite que os valores passados como referência
-        // sejam substituídos por outros valores, para permitir a divisão de páginas
-        // e crescimento da árvore. Assim, são usados os valores globais elemAux
-        // e chave2Aux. Quando há uma divisão, as chaves promovidas são armazenadas
-        // nessas variáveis.
-        elemAux = elem.clone();
-
-        // Se houver crescimento, então será criada uma página extra e será mantido um
-        // ponteiro para essa página. Os valores também são globais.
-        paginaAux = -1;
-        cresceu = false;
-
-        // Chamada recursiva para a inserção do par de chaves
-        boolean inserido = create1(pagina);
-
-        // Testa a necessidade de criação de uma nova raiz.
-        if (cresceu) {
-
-            // Cria a nova página que será a raiz. O ponteiro esquerdo da raiz
-            // será a raiz antiga e o seu ponteiro direito será para a nova página.
-            Pagina novaPagina = new Pagina(construtor, ordem);
-            novaPagina.elementos = new ArrayList<>(this.maxElementos);
-            novaPagina.elementos.add(elemAux);
-            novaPagina.filhos = new ArrayList<>(this.maxFilhos);
-            novaPagina.filhos.add(pagina);
-            novaPagina.filhos.add(paginaAux);
-
-            // Acha o espaço em disco. Testa se há páginas excluídas.
-            arquivo.seek(8);
-            long end = arquivo.readLong();
-            if(end==-1) {
-                end = arquivo.length();
-            } else { // reusa um endereço e atualiza a lista de excluídos no cabeçalho
-                arquivo.seek(end);
-                Pagina pa_excluida = new Pagina(construtor, ordem);
-                byte[] buffer = new byte[pa_excluida.TAMANHO_PAGINA];
-                arquivo.read(buffer);
-                pa_excluida.fromByteArray(buffer);
+            // Carrega a raiz
+            arquivo.seek(0);
+            long pagina;
+            pagina = arquivo.readLong();
+
+            // O processo de inclusão permite que os valores passados como referência
+            // sejam substituídos por outros valores, para permitir a divisão de páginas
+            // e crescimento da árvore. Assim, são usados os valores globais elemAux
+            // e chave2Aux. Quando há uma divisão, as chaves promovidas são armazenadas
+            // nessas variáveis.
+            elemAux = elem.clone();
+
+            // Se houver crescimento, então será criada uma página extra e será mantido um
+            // ponteiro para essa página. Os valores também são globais.
+            paginaAux = -1;
+            cresceu = false;
+
+            // Chamada recursiva para a inserção do par de chaves
+            boolean inserido = create1(pagina);
+
+            // Testa a necessidade de criação de uma nova raiz.
+            if (cresceu) {
+
+                // Cria a nova página que será a raiz. O ponteiro esquerdo da raiz
+                // será a raiz antiga e o seu ponteiro direito será para a nova página.
+                Pagina novaPagina = new Pagina(construtor, ordem);
+                novaPagina.elementos = new ArrayList<>(this.maxElementos);
+                novaPagina.elementos.add(elemAux);
+                novaPagina.filhos = new ArrayList<>(this.maxFilhos);
+                novaPagina.filhos.add(pagina);
+                novaPagina.filhos.add(paginaAux);
+
+                // Acha o espaço em disco. Testa se há páginas excluídas.
                 arquivo.seek(8);
-                arquivo.writeLong(pa_excluida.proxima);
+                long end = arquivo.readLong();
+                if(end==-1) {
+                    end = arquivo.length();
+                } else { // reusa um endereço e atualiza a lista de excluídos no cabeçalho
+                    Pagina pa_excluida = lerPagina(end);
+                    arquivo.seek(8);
+                    arquivo.writeLong(pa_excluida.proxima);
+                }
+                gravarPagina(end, novaPagina);
+                arquivo.seek(0);
+                arquivo.writeLong(end);
+                inserido = true;
             }
-            arquivo.seek(end);
-            long raiz = arquivo.getFilePointer();
-            arquivo.write(novaPagina.toByteArray());
-            arquivo.seek(0);
-            arquivo.writeLong(raiz);
-            inserido = true;
-        }
 
-        return inserido;
+            return inserido;
+        } finally {
+            liberarPaginas();
+        }
     }
 
     // Função recursiva de inclusão. A função passa uma página de referência.
@@ -372,11 +584,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
         }
 
         // Lê a página passada como referência
-        arquivo.seek(pagina);
-        Pagina pa = new Pagina(construtor, ordem);
-        byte[] buffer = new byte[pa.TAMANHO_PAGINA];
-        arquivo.read(buffer);
-        pa.fromByteArray(buffer);
+        Pagina pa = fixarPagina(pagina);
 
         // Busca o próximo ponteiro de descida. Como pode haver repetição
         // da primeira chave, a segunda também é usada como referência.
@@ -421,8 +629,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             pa.filhos.add(i + 1, paginaAux);
 
             // Escreve a página atualizada no arquivo
-            arquivo.seek(pagina);
-            arquivo.write(pa.toByteArray());
+            gravarPagina(pagina, pa);
 
             // Encerra o processo de crescimento e retorna
             cresceu = false;
@@ -456,10 +663,12 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
                 elemAux = np.elementos.get(0).clone();
 
             // caso contrário, promove o maior elemento da página esquerda
-            // removendo-o da página
+            // removendo-o da página; o ponteiro à direita dele passa a ser o
+            // primeiro da nova página (quando o elemento promovido é o próprio
+            // elemento inserido, esse ponteiro é o da página criada abaixo)
             else {
                 elemAux = pa.elementos.remove(pa.elementos.size() - 1);
-                pa.filhos.remove(pa.filhos.size() - 1);
+                np.filhos.set(0, pa.filhos.remove(pa.filhos.size() - 1));
             }
         }
 
@@ -489,11 +698,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
         if(end==-1) {
             end = arquivo.length();
         } else { // reusa um endereço e atualiza a lista de excluídos no cabeçalho
-            arquivo.seek(end);
-            Pagina pa_excluida = new Pagina(construtor, ordem);
-            buffer = new byte[pa_excluida.TAMANHO_PAGINA];
-            arquivo.read(buffer);
-            pa_excluida.fromByteArray(buffer);
+            Pagina pa_excluida = lerPagina(end);
             arquivo.seek(8);
             arquivo.writeLong(pa_excluida.proxima);
         }
@@ -507,62 +712,226 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
 
         // Grava as páginas no arquivo
         paginaAux = end;
-        arquivo.seek(paginaAux);
-        arquivo.write(np.toByteArray());
+        gravarPagina(paginaAux, np);
 
-        arquivo.seek(pagina);
-        arquivo.write(pa.toByteArray());
+        gravarPagina(pagina, pa);
 
         return true;
     }
 
-    // Remoção elementos na árvore. A remoção é recursiva. A primeira
-    // função chama a segunda recursivamente, passando a raiz como referência.
-    // Eventualmente, a árvore pode reduzir seu tamanho, por meio da exclusão da
-    // raiz.
-    public boolean delete(T elem) throws Exception {
+    // Carga em lote. Substitui todo o conteúdo da árvore pelos elementos
+    // recebidos, que devem estar em ordem crescente e sem pares repetidos.
+    // A árvore é construída de baixo para cima: primeiro todas as folhas, com
+    // a ocupação indicada (fração de 0 a 1 de cada página), e depois cada
+    // nível de páginas internas, até sobrar uma única página, que é a raiz.
+    // As páginas são gravadas em sequência, no final do arquivo.
+    public int construirEmLote(Iterator<T> elementos, double ocupacao) throws Exception {
+
+        if (ocupacao <= 0 || ocupacao > 1)
+            throw new IllegalArgumentException("A ocupação deve estar entre 0 e 1");
+
+        // Esvazia a árvore: raiz vazia e lista de excluídos vazia
+        LogTransacoes log = LogTransacoes.getInstance();
+        log.travar();
+        try {
+            log.aoAbortar(pool, pool::limpar);
+            pool.limpar();
+        } finally {
+            log.liberar();
+        }
+        arquivo.setLength(16);
+        arquivo.seek(0);
+        arquivo.writeLong(-1);
+        arquivo.writeLong(-1);
+
+        // Quantidades por página, respeitando o mínimo exigido pela exclusão
+        int minElementos = Math.max(1, maxElementos / 2);
+        int porFolha = Math.max(minElementos, Math.min(maxElementos, (int) Math.round(ocupacao * maxElementos)));
+        int minFilhos = maxElementos / 2 + 1;
+        int porPagina = Math.max(Math.max(2, minFilhos), Math.min(maxFilhos, (int) Math.round(ocupacao * maxFilhos)));
+
+        Pagina modelo = new Pagina(construtor, ordem);
+        int tamanhoPagina = modelo.TAMANHO_PAGINA;
+        ByteArrayOutputStream lote = new ByteArrayOutputStream();
+        long proximoEndereco = 16;
+
+        // Endereço e menor elemento de cada página do nível em construção
+        ArrayList<Long> enderecos = new ArrayList<>();
+        ArrayList<T> menores = new ArrayList<>();
+
+        // Folhas. Uma folha completa só é gravada quando a seguinte começa,
+        // para que a última possa ser equilibrada com a penúltima.
+        ArrayList<T> pendente = null;
+        ArrayList<T> atual = new ArrayList<>(maxElementos);
+        T anterior = null;
+        int quantidade = 0;
+        while (elementos.hasNext()) {
+            T elem = elementos.next();
+            if (anterior != null && elem.compareTo(anterior) <= 0)
+                throw new IllegalArgumentException("Elementos fora de ordem ou repetidos: " + elem);
+            anterior = elem;
+            quantidade++;
+            atual.add(elem.clone());
+            if (atual.size() == porFolha) {
+                if (pendente != null) {
+                    proximoEndereco = gravarFolha(lote, pendente, proximoEndereco, true, enderecos, menores);
+                }
+                pendente = atual;
+                atual = new ArrayList<>(maxElementos);
+            }
+        }
+        if (quantidade == 0) {
+            return 0;
+        }
+        if (pendente == null) {
+            proximoEndereco = gravarFolha(lote, atual, proximoEndereco, false, enderecos, menores);
+        } else if (atual.isEmpty()) {
+            proximoEndereco = gravarFolha(lote, pendente, proximoEndereco, false, enderecos, menores);
+        } else if (atual.size() >= minElementos) {
+            proximoEndereco = gravarFolha(lote, pendente, proximoEndereco, true, enderecos, menores);
+            proximoEndereco = gravarFolha(lote, atual, proximoEndereco, false, enderecos, menores);
+        } else {
+            // A última folha ficaria abaixo do mínimo: junta com a penúltima
+            // e, se não couber em uma página, divide ao meio
+            pendente.addAll(atual);
+            if (pendente.size() <= maxElementos) {
+                proximoEndereco = gravarFolha(lote, pendente, proximoEndereco, false, enderecos, menores);
+            } else {
+                int metade = pendente.size() - pendente.size() / 2;
+                proximoEndereco = gravarFolha(lote, new ArrayList<>(pendente.subList(0, metade)), proximoEndereco, true, enderecos, menores);
+                proximoEndereco = gravarFolha(lote, new ArrayList<>(pendente.subList(metade, pendente.size())), proximoEndereco, false, enderecos, menores);
+            }
+        }
 
-        // Encontra a raiz da árvore
+        // Níveis internos. Cada página recebe um grupo de páginas do nível
+        // de baixo; o separador entre dois filhos é o menor elemento do filho
+        // da direita.
+        while (enderecos.size() > 1) {
+            int[] grupos = dividirEmGrupos(enderecos.size(), porPagina, minFilhos, maxFilhos);
+            ArrayList<Long> enderecosNivel = new ArrayList<>(grupos.length);
+            ArrayList<T> menoresNivel = new ArrayList<>(grupos.length);
+            int inicio = 0;
+            for (int g = 0; g < grupos.length; g++) {
+                Pagina pa = new Pagina(construtor, ordem);
+                for (int j = inicio; j < inicio + grupos[g]; j++) {
+                    pa.filhos.add(enderecos.get(j));
+                    if (j > inicio)
+                        pa.elementos.add(menores.get(j));
+                }
+                enderecosNivel.add(proximoEndereco);
+                menoresNivel.add(menores.get(inicio));
+                lote.write(pa.toByteArray());
+                proximoEndereco += tamanhoPagina;
+                inicio += grupos[g];
+                descarregarLote(lote, proximoEndereco, false);
+            }
+            enderecos = enderecosNivel;
+            menores = menoresNivel;
+        }
+        descarregarLote(lote, proximoEndereco, true);
+
+        // A raiz é a última página gravada
         arquivo.seek(0);
-        long pagina;
-        pagina = arquivo.readLong();
+        arquivo.writeLong(enderecos.get(0));
+        return quantidade;
+    }
+
+    // Acrescenta uma folha ao lote; se não for a última, ela aponta para a
+    // página seguinte, que será gravada logo depois dela
+    private long gravarFolha(ByteArrayOutputStream lote, ArrayList<T> elems, long endereco, boolean temProxima,
+            ArrayList<Long> enderecos, ArrayList<T> menores) throws Exception {
+        Pagina pa = new Pagina(construtor, ordem);
+        pa.elementos = elems;
+        for (int j = 0; j <= elems.size(); j++)
+            pa.filhos.add(-1L);
+        long proximo = endereco + pa.TAMANHO_PAGINA;
+        pa.proxima = temProxima ? proximo : -1;
+        lote.write(pa.toByteArray());
+        enderecos.add(endereco);
+        menores.add(elems.get(0));
+        descarregarLote(lote, proximo, false);
+        return proximo;
+    }
 
-        // variável global de controle da redução do tamanho da árvore
-        diminuiu = false;
+    // Grava o lote de páginas no arquivo quando ele passa de 64 KB (ou sempre,
+    // ao final). O lote termina no endereço fim.
+    private void descarregarLote(ByteArrayOutputStream lote, long fim, boolean sempre) throws IOException {
+        if (lote.size() == 0 || (!sempre && lote.size() < 64 * 1024))
+            return;
+        arquivo.seek(fim - lote.size());
+        arquivo.write(lote.toByteArray());
+        lote.reset();
+    }
 
-        // Chama recursivamente a exclusão de registro (na elemAux e no
-        // chave2Aux) passando uma página como referência
-        boolean excluido = delete1(elem, pagina);
+    // Divide n itens em grupos de tamanho alvo, equilibrando os dois últimos
+    // para que nenhum fique abaixo do mínimo
+    private static int[] dividirEmGrupos(int n, int alvo, int minimo, int maximo) {
+        int quantidade = (n + alvo - 1) / alvo;
+        int[] grupos = new int[quantidade];
+        for (int g = 0; g < quantidade; g++)
+            grupos[g] = alvo;
+        int ultimo = n - (quantidade - 1) * alvo;
+        grupos[quantidade - 1] = ultimo;
+        if (quantidade > 1 && ultimo < minimo) {
+            int juntos = alvo + ultimo;
+            if (juntos <= maximo) {
+                int[] menos = new int[quantidade - 1];
+                System.arraycopy(grupos, 0, menos, 0, quantidade - 1);
+                menos[quantidade - 2] = juntos;
+                return menos;
+            }
+            grupos[quantidade - 2] = juntos - juntos / 2;
+            grupos[quantidade - 1] = juntos / 2;
+        }
+        return grupos;
+    }
 
-        // Se a exclusão tiver sido possível e a página tiver reduzido seu tamanho,
-        // por meio da fusão das duas páginas filhas da raiz, elimina essa raiz
-        if (excluido && diminuiu) {
+    // Remoção elementos na árvore. A remoção é recursiva. A primeira
+    // função chama a segunda recursivamente, passando a raiz como referência.
+    // Eventualmente, a árvore pode reduzir seu tamanho, por meio da exclusão da
+    // raiz.
+    public boolean delete(T elem) throws Exception {
+        try {
 
-            // Lê a raiz
-            arquivo.seek(pagina);
-            Pagina pa = new Pagina(construtor, ordem);
-            byte[] buffer = new byte[pa.TAMANHO_PAGINA];
-            arquivo.read(buffer);
-            pa.fromByteArray(buffer);
+            // Encontra a raiz da árvore
+            arquivo.seek(0);
+            long pagina;
+            pagina = arquivo.readLong();
 
-            // Se a página tiver 0 elementos, apenas atualiza o ponteiro para a raiz,
-            // no cabeçalho do arquivo, para o seu primeiro filho e insere a raiz velha
-            // na lista de páginas excluídas
-            if (pa.elementos.size() == 0) {
-                arquivo.seek(0);
-                arquivo.writeLong(pa.filhos.get(0));
+            // variável global de controle da redução do tamanho da árvore
+            diminuiu = false;
 
-                arquivo.seek(8);
-                long end = arquivo.readLong();  // cabeça da lista de páginas excluídas
-                pa.proxima = end;
-                arquivo.seek(8);
-                arquivo.writeLong(pagina);
-                arquivo.seek(pagina);
-                arquivo.write(pa.toByteArray());
+            // Chama recursivamente a exclusão de registro (na elemAux e no
+            // chave2Aux) passando uma página como referência
+            boolean excluido = delete1(elem, pagina);
+
+            // Se a exclusão tiver sido possível e a página tiver reduzido seu tamanho,
+            // por meio da fusão das duas páginas filhas da raiz, elimina essa raiz
+            if (excluido && diminuiu) {
+
+                // Lê a raiz
+                Pagina pa = fixarPagina(pagina);
+
+                // Se a página tiver 0 elementos, apenas atualiza o ponteiro para a raiz,
+                // no cabeçalho do arquivo, para o seu primeiro filho e insere a raiz velha
+                // na lista de páginas excluídas
+                if (pa.elementos.size() == 0) {
+                    arquivo.seek(0);
+                    arquivo.writeLong(pa.filhos.get(0));
+
+                    arquivo.seek(8);
+                    long end = arquivo.readLong();  // cabeça da lista de páginas excluídas
+                    pa.proxima = end;
+                    arquivo.seek(8);
+                    arquivo.writeLong(pagina);
+                    gravarPagina(pagina, pa);
+                }
             }
-        }
 
-        return excluido;
+            return excluido;
+        } finally {
+            liberarPaginas();
+        }
     }
 
     // Função recursiva de exclusão. A função passa uma página de referência.
@@ -581,11 +950,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
         }
 
         // Lê o registro da página no arquivo
-        arquivo.seek(pagina);
-        Pagina pa = new Pagina(construtor, ordem);
-        byte[] buffer = new byte[pa.TAMANHO_PAGINA];
-        arquivo.read(buffer);
-        pa.fromByteArray(buffer);
+        Pagina pa = fixarPagina(pagina);
 
         // Encontra a página em que o par de chaves está presente
         // Nesse primeiro passo, salta todas os pares de chaves menores
@@ -603,8 +968,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             pa.filhos.remove(i + 1);
 
             // Atualiza o registro da página no arquivo
-            arquivo.seek(pagina);
-            arquivo.write(pa.toByteArray());
+            gravarPagina(pagina, pa);
 
             // Se a página contiver menos elementos do que o mínimo necessário,
             // indica a necessidade de fusão de páginas
@@ -635,10 +999,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             // Carrega a página filho que ficou com menos elementos do
             // do que o mínimo necessário
             long paginaFilho = pa.filhos.get(diminuido);
-            Pagina pFilho = new Pagina(construtor, ordem);
-            arquivo.seek(paginaFilho);
-            arquivo.read(buffer);
-            pFilho.fromByteArray(buffer);
+            Pagina pFilho = fixarPagina(paginaFilho);
 
             // Cria uma página para o irmão (da direita ou esquerda)
             long paginaIrmaoEsq = -1, paginaIrmaoDir = -1;
@@ -647,33 +1008,29 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             // Carrega os irmãos (que existirem)
             if (diminuido > 0) { // possui um irmão esquerdo, pois não é a primeira filho do pai
                 paginaIrmaoEsq = pa.filhos.get(diminuido - 1);
-                pIrmaoEsq = new Pagina(construtor, ordem);
-                arquivo.seek(paginaIrmaoEsq);
-                arquivo.read(buffer);
-                pIrmaoEsq.fromByteArray(buffer);
+                pIrmaoEsq = fixarPagina(paginaIrmaoEsq);
             }
             if (diminuido < pa.elementos.size()) { // possui um irmão direito, pois não é o último filho do pai
                 paginaIrmaoDir = pa.filhos.get(diminuido + 1);
-                pIrmaoDir = new Pagina(construtor, ordem);
-                arquivo.seek(paginaIrmaoDir);
-                arquivo.read(buffer);
-                pIrmaoDir.fromByteArray(buffer);
+                pIrmaoDir = fixarPagina(paginaIrmaoDir);
             }
 
             // Verifica se o irmão esquerdo existe e pode ceder algum elemento
             if (pIrmaoEsq != null && pIrmaoEsq.elementos.size() > maxElementos / 2) {
 
                 // Se for folha, copia o elemento do irmão, já que o do pai será extinto ou
-                // repetido
-                if (pFilho.filhos.get(0) == -1)
+                // repetido, e o novo primeiro elemento da página sobe para o pai
+                if (pFilho.filhos.get(0) == -1) {
                     pFilho.elementos.add(0, pIrmaoEsq.elementos.remove(pIrmaoEsq.elementos.size() - 1));
+                    pa.elementos.set(diminuido - 1, pFilho.elementos.get(0));
+                }
 
-                // Se não for folha, desce o elemento do pai
-                else
+                // Se não for folha, desce o elemento do pai e sobe para o pai o
+                // último elemento do irmão
+                else {
                     pFilho.elementos.add(0, pa.elementos.get(diminuido - 1));
-
-                // Copia o elemento vindo do irmão para o pai (página atual)
-                pa.elementos.set(diminuido - 1, pFilho.elementos.get(0));
+                    pa.elementos.set(diminuido - 1, pIrmaoEsq.elementos.remove(pIrmaoEsq.elementos.size() - 1));
+                }
 
                 // Reduz o elemento no irmão
                 pFilho.filhos.add(0, pIrmaoEsq.filhos.remove(pIrmaoEsq.filhos.size() - 1));
@@ -773,17 +1130,13 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
             diminuiu = pa.elementos.size() < maxElementos / 2;
 
             // Atualiza os demais registros
-            arquivo.seek(pagina);
-            arquivo.write(pa.toByteArray());
-            arquivo.seek(paginaFilho);
-            arquivo.write(pFilho.toByteArray());
+            gravarPagina(pagina, pa);
+            gravarPagina(paginaFilho, pFilho);
             if (pIrmaoEsq != null) {
-                arquivo.seek(paginaIrmaoEsq);
-                arquivo.write(pIrmaoEsq.toByteArray());
+                gravarPagina(paginaIrmaoEsq, pIrmaoEsq);
             }
             if (pIrmaoDir != null) {
-                arquivo.seek(paginaIrmaoDir);
-                arquivo.write(pIrmaoDir.toByteArray());
+                gravarPagina(paginaIrmaoDir, pIrmaoDir);
             }
         }
         return excluido;
@@ -810,11 +1163,7 @@ public class ArvoreBMais<T extends RegistroArvoreBMais<T>> {
         int i;
 
         // Lê o registro da página passada como referência no arquivo
-        arquivo.seek(pagina);
-        Pagina pa = new Pagina(construtor, ordem);
-        byte[] buffer = new byte[pa.TAMANHO_PAGINA];
-        arquivo.read(buffer);
-        pa.fromByteArray(buffer);
+        Pagina pa = lerPagina(pagina);
 
         // Imprime a página
         String endereco = String.format("%04d", pagina);
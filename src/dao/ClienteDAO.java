@@ -1,33 +1,118 @@
 package dao;
 import model.Cliente;
 
-public class ClienteDAO {
+public class ClienteDAO implements AutoCloseable {
     private Arquivo<Cliente> arqClientes;
     private IndiceHashExtensivel indiceHash;
+    // Índice único CPF -> ID do cliente
+    private IndiceCpfClientes indiceCpf;
+    // Índice único email -> ID do cliente, por um resumo do email (sem decifrá-lo)
+    private IndiceEmailClientes indiceEmail;
 
     public ClienteDAO() throws Exception {
-        arqClientes = new Arquivo<>("clientes", Cliente.class.getConstructor());
+        arqClientes = new Arquivo<>("clientes", Cliente.class.getConstructor(), true);
         // Usar o mesmo índice hash que o PetDAO para manter consistência
         indiceHash = new IndiceHashExtensivel("pets");
+        indiceCpf = new IndiceCpfClientes("src/dados/clientes/clientes");
+        indiceEmail = new IndiceEmailClientes("src/dados/clientes/clientes");
+
+        // Emails cifrados no formato antigo são cifrados de novo uma única vez,
+        // e a sobra dos registros regravados é recuperada em seguida (a
+        // compactação não pode ser feita dentro da transação de um chamador)
+        if (arqClientes.getVersaoFormato() < Cliente.VERSAO_FORMATO
+                && migrarCriptografia() > 0 && !LogTransacoes.getInstance().emTransacao()) {
+            compactar();
+        }
+
+        // Bases criadas antes dos índices por CPF e por email: monta-os a
+        // partir dos clientes (uma única varredura)
+        boolean montarCpf = indiceCpf.precisaMontar();
+        boolean montarEmail = indiceEmail.precisaMontar();
+        if (montarCpf || montarEmail) {
+            LogTransacoes.getInstance().executar(() -> {
+                java.util.List<Cliente> todos = listarTodos();
+                if (montarCpf) {
+                    for (Cliente cliente : todos) {
+                        indiceCpf.removerChaveAntiga(cliente.getCpf());
+                    }
+                }
+                for (Cliente cliente : todos) {
+                    if (montarCpf) {
+                        indiceCpf.inserir(cliente.getCpf(), cliente.getId());
+                    }
+                    if (montarEmail) {
+                        indiceEmail.inserir(cliente.getEmail(), cliente.getId());
+                    }
+                }
+                indiceCpf.marcarMontado();
+                indiceEmail.marcarMontado();
+                return null;
+            });
+        }
     }
 
     public boolean incluirCliente(Cliente cliente) throws Exception {
-        // Validar se CPF já existe
-        if (buscarClientePorCPF(cliente.getCpf()) != null) {
-            throw new IllegalArgumentException("Já existe um cliente cadastrado com o CPF: " + cliente.getCpf());
-        }
-        
-        // Validar se email já existe (se fornecido)
-        if (cliente.getEmail() != null && !cliente.getEmail().trim().isEmpty()) {
-            if (buscarClientePorEmail(cliente.getEmail()) != null) {
+        return LogTransacoes.getInstance().executar(() -> {
+            // Validar se CPF já existe
+            if (buscarClientePorCPF(cliente.getCpf()) != null) {
+                throw new IllegalArgumentException("Já existe um cliente cadastrado com o CPF: " + cliente.getCpf());
+            }
+
+            // Validar se email já existe (se fornecido)
+            if (indiceEmail.buscar(cliente.getEmail()) >= 0) {
                 throw new IllegalArgumentException("Já existe um cliente cadastrado com o email: " + cliente.getEmail());
             }
-        }
-        
-        return arqClientes.create(cliente) > 0;
+
+            int id = arqClientes.create(cliente);
+            if (id > 0) {
+                indiceCpf.inserir(cliente.getCpf(), id);
+                indiceEmail.inserir(cliente.getEmail(), id);
+            }
+            return id > 0;
+        });
+    }
+
+    /**
+     * Inclui vários clientes de uma vez (importação em lote).
+     * CPFs e emails são validados nos índices, sem varrer o arquivo, e os
+     * clientes são gravados com Arquivo.createAll. Se algum cliente for
+     * inválido, nenhum é incluído.
+     * @return quantidade de clientes incluídos
+     */
+    public int incluirClientes(java.util.List<Cliente> clientes) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            java.util.Set<String> cpfs = new java.util.HashSet<>();
+            java.util.Set<String> emails = new java.util.HashSet<>();
+
+            // Valida contra os clientes existentes e contra os do próprio lote
+            for (Cliente cliente : clientes) {
+                // CPFs com os mesmos dígitos são o mesmo CPF (ver buscarClientePorCPF)
+                long cpf = IndiceCpfClientes.cpfNormalizado(cliente.getCpf());
+                String chaveCpf = cpf < 0 ? cliente.getCpf() : Long.toString(cpf);
+                if (!cpfs.add(chaveCpf) || buscarClientePorCPF(cliente.getCpf()) != null) {
+                    throw new IllegalArgumentException("Já existe um cliente cadastrado com o CPF: " + cliente.getCpf());
+                }
+                if (!IndiceEmailClientes.vazio(cliente.getEmail())
+                        && (!emails.add(cliente.getEmail().trim().toLowerCase())
+                            || indiceEmail.buscar(cliente.getEmail()) >= 0)) {
+                    throw new IllegalArgumentException("Já existe um cliente cadastrado com o email: " + cliente.getEmail());
+                }
+            }
+
+            int[] ids = arqClientes.createAll(clientes);
+            for (int i = 0; i < ids.length; i++) {
+                indiceCpf.inserir(clientes.get(i).getCpf(), ids[i]);
+                indiceEmail.inserir(clientes.get(i).getEmail(), ids[i]);
+            }
+            return ids.length;
+        });
     }
 
     public boolean alterarCliente(Cliente cliente) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> alterar(cliente));
+    }
+
+    private boolean alterar(Cliente cliente) throws Exception {
         // Buscar cliente existente
         Cliente clienteExistente = arqClientes.read(cliente.getId());
         if (clienteExistente == null) {
@@ -45,49 +130,71 @@ public class ClienteDAO {
         // Validar se email mudou e se já existe outro cliente com o novo email
         if (cliente.getEmail() != null && !cliente.getEmail().trim().isEmpty()) {
             if (!cliente.getEmail().equals(clienteExistente.getEmail())) {
-                Cliente clienteComMesmoEmail = buscarClientePorEmail(cliente.getEmail());
-                if (clienteComMesmoEmail != null && clienteComMesmoEmail.getId() != cliente.getId()) {
+                int idComMesmoEmail = indiceEmail.buscar(cliente.getEmail());
+                if (idComMesmoEmail >= 0 && idComMesmoEmail != cliente.getId()) {
                     throw new IllegalArgumentException("Já existe outro cliente cadastrado com o email: " + cliente.getEmail());
                 }
             }
         }
-        
-        return arqClientes.update(cliente);
+
+        boolean alterado = arqClientes.update(cliente);
+        if (alterado && !clienteExistente.getCpf().equals(cliente.getCpf())) {
+            indiceCpf.remover(clienteExistente.getCpf());
+            indiceCpf.inserir(cliente.getCpf(), cliente.getId());
+        }
+        if (alterado && !java.util.Objects.equals(clienteExistente.getEmail(), cliente.getEmail())) {
+            indiceEmail.remover(clienteExistente.getEmail(), cliente.getId());
+            indiceEmail.inserir(cliente.getEmail(), cliente.getId());
+        }
+        return alterado;
     }
 
     public boolean excluirCliente(int id) throws Exception {
-        // Buscar o cliente para obter o CPF antes de excluir
-        Cliente cliente = arqClientes.read(id);
-        if (cliente == null) {
-            return false;
-        }
+        return LogTransacoes.getInstance().executar(() -> {
+            // Buscar o cliente para obter o CPF antes de excluir
+            Cliente cliente = arqClientes.read(id);
+            if (cliente == null) {
+                return false;
+            }
         
-        // Excluir em cascata: primeiro excluir todos os pets do cliente
-        PetDAO petDAO = new PetDAO();
-        java.util.List<Integer> idsPets = indiceHash.buscarIdsPetsPorCpf(cliente.getCpf());
+            // Excluir em cascata: primeiro excluir todos os pets do cliente
+            PetDAO petDAO = new PetDAO();
+            java.util.List<Integer> idsPets = indiceHash.buscarIdsPetsPorCpf(cliente.getCpf());
         
-        // Excluir cada pet
-        for (Integer idPet : idsPets) {
-            petDAO.excluirPet(idPet);
-        }
+            // Excluir cada pet
+            for (Integer idPet : idsPets) {
+                petDAO.excluirPet(idPet);
+            }
         
-        // Excluir o cliente do arquivo
-        boolean excluido = arqClientes.delete(id);
+            // Excluir o cliente do arquivo
+            boolean excluido = arqClientes.delete(id);
         
-        if (excluido) {
-            // Remover todos os relacionamentos Pet-Dono da hash extensível
-            indiceHash.removerTodosPorCpf(cliente.getCpf());
-        }
+            if (excluido) {
+                // Remover todos os relacionamentos Pet-Dono da hash extensível
+                indiceHash.removerTodosPorCpf(cliente.getCpf());
+                indiceCpf.remover(cliente.getCpf());
+                indiceEmail.remover(cliente.getEmail(), id);
+            }
         
-        return excluido;
+            return excluido;
+        });
     }
 
     public Cliente buscarCliente(int id) throws Exception {
         return arqClientes.read(id);
     }
 
+    /**
+     * Busca o cliente pelo CPF no índice por CPF. A comparação é feita apenas
+     * pelos dígitos, então "123.456.789-00" e "12345678900" são o mesmo CPF.
+     * Um CPF sem dígitos não é indexado e é procurado no arquivo.
+     */
     public Cliente buscarClientePorCPF(String cpf) throws Exception {
-        return arqClientes.findBy(cliente -> cliente.getCpf().equals(cpf));
+        if (IndiceCpfClientes.cpfNormalizado(cpf) < 0) {
+            return arqClientes.findBy(cliente -> cliente.getCpf().equals(cpf));
+        }
+        int id = indiceCpf.buscar(cpf);
+        return id < 0 ? null : arqClientes.read(id);
     }
 
     public boolean alterarClientePorCPF(String cpf, Cliente novoCliente) throws Exception {
@@ -101,45 +208,116 @@ public class ClienteDAO {
         novoCliente.setId(clienteExistente.getId());
         novoCliente.setCpf(cpf);
         
-        // Usar o método de alteração por ID
-        return arqClientes.update(novoCliente);
+        // Usar o método de alteração por ID, que valida o email e mantém os índices
+        return LogTransacoes.getInstance().executar(() -> alterar(novoCliente));
     }
 
     public boolean excluirClientePorCPF(String cpf) throws Exception {
-        // Buscar cliente pelo CPF para obter o ID
-        Cliente cliente = buscarClientePorCPF(cpf);
-        if (cliente == null) {
-            return false; // Cliente não encontrado
-        }
+        return LogTransacoes.getInstance().executar(() -> {
+            // Buscar cliente pelo CPF para obter o ID
+            Cliente cliente = buscarClientePorCPF(cpf);
+            if (cliente == null) {
+                return false; // Cliente não encontrado
+            }
         
-        // Excluir em cascata: primeiro excluir todos os pets do cliente
-        PetDAO petDAO = new PetDAO();
-        java.util.List<Integer> idsPets = indiceHash.buscarIdsPetsPorCpf(cpf);
+            // Excluir em cascata: primeiro excluir todos os pets do cliente
+            PetDAO petDAO = new PetDAO();
+            java.util.List<Integer> idsPets = indiceHash.buscarIdsPetsPorCpf(cpf);
         
-        // Excluir cada pet
-        for (Integer idPet : idsPets) {
-            petDAO.excluirPet(idPet);
-        }
+            // Excluir cada pet
+            for (Integer idPet : idsPets) {
+                petDAO.excluirPet(idPet);
+            }
         
-        // Remover todos os relacionamentos Pet-Dono da hash extensível
-        indiceHash.removerTodosPorCpf(cpf);
+            // Remover todos os relacionamentos Pet-Dono da hash extensível
+            indiceHash.removerTodosPorCpf(cpf);
         
-        // Usar o método de exclusão por ID
-        return arqClientes.delete(cliente.getId());
+            // Usar o método de exclusão por ID
+            boolean excluido = arqClientes.delete(cliente.getId());
+            if (excluido) {
+                indiceCpf.remover(cliente.getCpf());
+                indiceEmail.remover(cliente.getEmail(), cliente.getId());
+            }
+            return excluido;
+        });
     }
 
     public java.util.List<Cliente> buscarClientesPorNome(String nome) throws Exception {
-        return arqClientes.findAll(cliente -> cliente.getNome().toLowerCase().contains(nome.toLowerCase()));
+        return arqClientes.findAllParalelo(cliente -> cliente.getNome().toLowerCase().contains(nome.toLowerCase()));
     }
 
+    /**
+     * Busca o cliente pelo email no índice por email (sem diferenciar
+     * maiúsculas de minúsculas). Apenas o cliente encontrado tem o email
+     * decifrado.
+     */
     public Cliente buscarClientePorEmail(String email) throws Exception {
-        return arqClientes.findBy(cliente -> cliente.getEmail().toLowerCase().equals(email.toLowerCase()));
+        if (IndiceEmailClientes.vazio(email)) {
+            // Clientes sem email: basta o campo cifrado, sem descriptografar nada
+            return arqClientes.findBy(cliente -> IndiceEmailClientes.vazio(cliente.getEmailCriptografado()));
+        }
+        int id = indiceEmail.buscar(email);
+        return id < 0 ? null : arqClientes.read(id);
     }
     
     /**
      * Lista todos os clientes cadastrados (para busca por padrão)
      */
     public java.util.List<Cliente> listarTodos() throws Exception {
-        return arqClientes.findAll(cliente -> true);
+        return arqClientes.findAllParalelo(cliente -> true);
+    }
+
+    /**
+     * Cifra de novo com a chave de dados os emails cifrados no formato antigo
+     * (RSA por blocos, em hexadecimal). O texto novo é menor, então os
+     * registros são regravados no lugar; a sobra é recuperada na próxima
+     * compactação.
+     *
+     * Um email que não pode ser decifrado fica como está, para não perder o
+     * dado original; nesse caso a versão do arquivo não é atualizada e a
+     * migração volta a tentar esses registros na próxima abertura.
+     * @return quantidade de clientes convertidos
+     */
+    public int migrarCriptografia() throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            RSAKeyManager rsa = RSAKeyManager.getInstance();
+            java.util.List<Cliente> antigos = arqClientes.findAll(
+                cliente -> RSAKeyManager.formatoAntigo(cliente.getEmailCriptografado()));
+            int convertidos = 0;
+            for (Cliente cliente : antigos) {
+                String email;
+                try {
+                    email = rsa.descriptografarEstrito(cliente.getEmailCriptografado());
+                } catch (Exception e) {
+                    System.err.println("Email do cliente " + cliente.getId()
+                        + " não pôde ser decifrado e não foi migrado: " + e.getMessage());
+                    continue;
+                }
+                cliente.setEmail(email);
+                if (RSAKeyManager.formatoAntigo(cliente.getEmailCriptografado())) {
+                    continue; // a cifragem falhou e setEmail guardou o texto puro
+                }
+                arqClientes.update(cliente);
+                convertidos++;
+            }
+            if (convertidos == antigos.size()) {
+                arqClientes.setVersaoFormato(Cliente.VERSAO_FORMATO);
+            }
+            return convertidos;
+        });
+    }
+
+    /**
+     * Compacta o arquivo de clientes, descartando os registros excluídos e
+     * os bytes que sobraram de registros regravados no lugar
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar() throws Exception {
+        return arqClientes.compactar(Cliente::regravar);
+    }
+
+    @Override
+    public void close() throws Exception {
+        arqClientes.close();
     }
 }
@@ -0,0 +1,245 @@
+package dao;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Gerenciador dos espaços livres (registros excluídos) de um Arquivo.
+ *
+ * Substitui a lista encadeada de excluídos gravada dentro do próprio arquivo
+ * de dados, que exigia um seek por nó a cada inclusão ou exclusão. Os espaços
+ * ficam em memória, agrupados por tamanho em uma TreeMap, e a escolha do
+ * espaço é best-fit em O(log n). Espaços muito maiores que o necessário são
+ * divididos, e a sobra volta a ser um espaço livre.
+ *
+ * A persistência usa o mesmo esquema do IndiceSequencial: um diário
+ * <entidade>_livres.log em que cada liberação ou uso de espaço acrescenta um
+ * registro, compactado quando fica grande. Antes de reutilizar um espaço, sua
+ * lápide e seu tamanho são conferidos no arquivo de dados, de modo que uma
+ * entrada desatualizada no diário nunca sobrescreve um registro válido.
+ */
+class EspacoLivre {
+    // Operação (1) + tamanho (2) + endereço (8)
+    private static final int TAM_REGISTRO_LOG = 11;
+    private static final int LIMITE_MINIMO_LOG = 1024;
+    // Uma sobra só vira um novo espaço livre se couber cabeçalho + 16 bytes
+    private static final int SOBRA_MINIMA = 3 + 16;
+
+    private static final byte OP_LIVRE = 'L';
+    private static final byte OP_USADO = 'U';
+
+    private RandomAccessFile arquivo;   // arquivo de dados
+    private RandomAccessFile log;
+    private long inicioDados;           // primeiro endereço após o cabeçalho
+    private TreeMap<Short, ArrayDeque<Long>> livresPorTamanho;
+    private int quantidadeLivres;
+    private int registrosNoLog;
+
+    EspacoLivre(RandomAccessFile arquivo, long inicioDados, String caminhoLog) throws Exception {
+        this.arquivo = arquivo;
+        this.inicioDados = inicioDados;
+        boolean logExistia = new File(caminhoLog).exists();
+        this.log = new ArquivoTransacional(caminhoLog);
+
+        if (logExistia) {
+            carregar();
+        } else {
+            // Primeira abertura: recupera os excluídos varrendo o arquivo de dados
+            // (inclui os que estavam na antiga lista encadeada) e grava o diário
+            reconstruir();
+        }
+    }
+
+    // Reaplica o diário: o estado final de cada endereço é o da última operação
+    private void carregar() throws Exception {
+        // Se a transação for abortada, o estado em memória é recarregado
+        LogTransacoes.getInstance().aoAbortar(this, this::carregar);
+
+        long tamanhoValido = log.length() - (log.length() % TAM_REGISTRO_LOG);
+        if (tamanhoValido != log.length()) {
+            log.setLength(tamanhoValido);
+        }
+
+        byte[] dados = new byte[(int) tamanhoValido];
+        log.seek(0);
+        log.readFully(dados);
+        ByteBuffer bb = ByteBuffer.wrap(dados);
+        Map<Long, Short> livres = new HashMap<>();
+        registrosNoLog = 0;
+        while (bb.remaining() >= TAM_REGISTRO_LOG) {
+            byte operacao = bb.get();
+            short tamanho = bb.getShort();
+            long endereco = bb.getLong();
+            if (operacao == OP_LIVRE) {
+                livres.put(endereco, tamanho);
+            } else {
+                livres.remove(endereco);
+            }
+            registrosNoLog++;
+        }
+
+        livresPorTamanho = new TreeMap<>();
+        quantidadeLivres = 0;
+        for (Map.Entry<Long, Short> e : livres.entrySet()) {
+            adicionar(e.getValue(), e.getKey());
+        }
+    }
+
+    private void reconstruir() throws Exception {
+        livresPorTamanho = new TreeMap<>();
+        quantidadeLivres = 0;
+
+        long fim = arquivo.length();
+        ByteBuffer cabecalho = ByteBuffer.allocate(3);
+        long posicao = inicioDados;
+        while (posicao + 3 <= fim) {
+            arquivo.seek(posicao);
+            arquivo.readFully(cabecalho.array());
+            byte lapide = cabecalho.get(0);
+            short tamanho = cabecalho.getShort(1);
+            if (tamanho < 0) {
+                break; // cabeçalho inválido: não há como seguir adiante
+            }
+            if (lapide != ' ') {
+                adicionar(tamanho, posicao);
+            }
+            posicao += 3 + tamanho;
+        }
+
+        // A lista encadeada do cabeçalho deixa de ser usada. Os bytes 4 a 7
+        // guardam a versão do formato dos registros e são preservados.
+        if (arquivo.length() >= 12) {
+            arquivo.seek(8);
+            arquivo.writeInt(-1);
+        }
+        compactarLog();
+    }
+
+    private void adicionar(short tamanho, long endereco) {
+        livresPorTamanho.computeIfAbsent(tamanho, t -> new ArrayDeque<>()).push(endereco);
+        quantidadeLivres++;
+    }
+
+    /**
+     * Registra um espaço liberado (registro marcado com lápide).
+     */
+    void liberar(int tamanho, long endereco) throws Exception {
+        LogTransacoes.getInstance().aoAbortar(this, this::carregar);
+        adicionar((short) tamanho, endereco);
+        registrar(OP_LIVRE, (short) tamanho, endereco);
+    }
+
+    /**
+     * Obtém um espaço com pelo menos tamanhoNecessario bytes de dados.
+     * O cabeçalho do espaço (lápide + tamanho) já está gravado no arquivo;
+     * cabe ao chamador apenas remover a lápide e gravar os dados.
+     * @return endereço do espaço, ou -1 se não houver espaço adequado
+     */
+    long alocar(int tamanhoNecessario) throws Exception {
+        LogTransacoes.getInstance().aoAbortar(this, this::carregar);
+        byte[] cabecalho = new byte[3];
+        Map.Entry<Short, ArrayDeque<Long>> faixa = livresPorTamanho.ceilingEntry((short) tamanhoNecessario);
+        while (faixa != null) {
+            short tamanho = faixa.getKey();
+            long endereco = faixa.getValue().pop();
+            quantidadeLivres--;
+            if (faixa.getValue().isEmpty()) {
+                livresPorTamanho.remove(tamanho);
+            }
+
+            // Confere no arquivo se o espaço continua livre e com o mesmo tamanho
+            boolean valido = false;
+            if (endereco >= inicioDados && endereco + 3 <= arquivo.length()) {
+                arquivo.seek(endereco);
+                arquivo.readFully(cabecalho);
+                valido = cabecalho[0] != ' ' && ByteBuffer.wrap(cabecalho).getShort(1) == tamanho;
+            }
+            registrar(OP_USADO, tamanho, endereco);
+
+            if (valido) {
+                dividir(endereco, tamanho, tamanhoNecessario);
+                return endereco;
+            }
+            faixa = livresPorTamanho.ceilingEntry((short) tamanhoNecessario);
+        }
+        return -1;
+    }
+
+    // Se o espaço for bem maior que o necessário, reduz o seu tamanho e
+    // transforma a sobra em um novo espaço livre logo após ele
+    private void dividir(long endereco, short tamanho, int tamanhoNecessario) throws Exception {
+        int sobra = tamanho - tamanhoNecessario;
+        if (sobra < SOBRA_MINIMA) {
+            return;
+        }
+
+        long enderecoSobra = endereco + 3 + tamanhoNecessario;
+        short tamanhoSobra = (short) (sobra - 3);
+        ByteBuffer bb = ByteBuffer.allocate(3);
+        bb.put((byte) '*');
+        bb.putShort(tamanhoSobra);
+        arquivo.seek(enderecoSobra);
+        arquivo.write(bb.array());
+
+        arquivo.seek(endereco + 1);
+        arquivo.writeShort(tamanhoNecessario);
+
+        liberar(tamanhoSobra, enderecoSobra);
+    }
+
+    private void registrar(byte operacao, short tamanho, long endereco) throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(TAM_REGISTRO_LOG);
+        bb.put(operacao);
+        bb.putShort(tamanho);
+        bb.putLong(endereco);
+        log.seek(log.length());
+        log.write(bb.array());
+        registrosNoLog++;
+
+        if (registrosNoLog > Math.max(LIMITE_MINIMO_LOG, 2 * quantidadeLivres)) {
+            // Recarrega do disco para incorporar alterações de outras instâncias
+            carregar();
+            compactarLog();
+        }
+    }
+
+    // Regrava o diário apenas com os espaços livres atuais
+    private void compactarLog() throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(quantidadeLivres * TAM_REGISTRO_LOG);
+        for (Map.Entry<Short, ArrayDeque<Long>> faixa : livresPorTamanho.entrySet()) {
+            for (long endereco : faixa.getValue()) {
+                bb.put(OP_LIVRE);
+                bb.putShort(faixa.getKey());
+                bb.putLong(endereco);
+            }
+        }
+        log.setLength(0);
+        log.seek(0);
+        log.write(bb.array());
+        registrosNoLog = quantidadeLivres;
+    }
+
+    /**
+     * Descarta todos os espaços livres, passando a operar sobre um novo
+     * arquivo de dados (usado após a compactação, que não deixa espaços livres).
+     */
+    void reiniciar(RandomAccessFile novoArquivo) throws Exception {
+        this.arquivo = novoArquivo;
+        livresPorTamanho = new TreeMap<>();
+        quantidadeLivres = 0;
+        compactarLog();
+    }
+
+    int getQuantidadeLivres() {
+        return quantidadeLivres;
+    }
+
+    void close() throws Exception {
+        log.close();
+    }
+}
@@ -20,7 +20,14 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.lang.reflect.Constructor;
 
 public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
@@ -33,6 +40,35 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
   Diretorio diretorio;
   Constructor<T> construtor;
 
+  // O diretório fica residente em memória e é compartilhado pelas instâncias
+  // abertas sobre o mesmo arquivo; ele só é gravado quando um cesto é dividido
+  private static final Map<String, Diretorio> diretorios = new HashMap<>();
+
+  // Cache de cestos (LRU), também compartilhado por arquivo
+  private static final Map<String, CacheCestos> caches = new HashMap<>();
+  CacheCestos cache;
+
+  /**
+   * Cestos já desserializados, por endereço, em ordem de uso (LRU).
+   * Dentro de uma transação, um cesto alterado fica apenas no cache (sujo)
+   * e é gravado uma única vez, antes da confirmação; fora dela, é gravado
+   * imediatamente. Um cesto sujo que sai do cache também é gravado.
+   * Como os cestos do cache são compartilhados entre threads e alterados no
+   * lugar, as operações públicas da hash (create, read, update, delete e
+   * empty) executam inteiras com a trava do log de transações.
+   */
+  static class CacheCestos {
+    static final int CAPACIDADE = 256;
+
+    final LinkedHashMap<Long, Object> cestos = new LinkedHashMap<>(16, 0.75f, true);
+    final Set<Long> sujos = new HashSet<>();
+
+    void limpar() {
+      cestos.clear();
+      sujos.clear();
+    }
+  }
+
   public class Cesto {
 
     Constructor<T> construtor;
@@ -89,8 +125,9 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
       elementos = new ArrayList<>(quantidadeMaxima);
       byte[] dados = new byte[bytesPorElemento];
       T elem;
-      while (i < quantidadeMaxima) {
-        dis.read(dados);
+      // As posições vazias do cesto não são desserializadas
+      while (i < quantidade) {
+        dis.readFully(dados);
         elem = construtor.newInstance();
         elem.fromByteArray(dados);
         elementos.add(elem);
@@ -144,7 +181,7 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
       int i = 0;
       while (i < quantidade && chave > elementos.get(i).hashCode())
         i++;
-      if (chave == elementos.get(i).hashCode()) {
+      if (i < quantidade && chave == elementos.get(i).hashCode()) {
         elementos.remove(i);
         quantidade--;
         return true;
@@ -180,7 +217,7 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
 
   }
 
-  protected class Diretorio {
+  protected static class Diretorio {
 
     byte profundidadeGlobal;
     long[] enderecos;
@@ -280,8 +317,8 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
     nomeArquivoDiretorio = nd;
     nomeArquivoCestos = nc;
 
-    arqDiretorio = new RandomAccessFile(nomeArquivoDiretorio, "rw");
-    arqCestos = new RandomAccessFile(nomeArquivoCestos, "rw");
+    arqDiretorio = new ArquivoTransacional(nomeArquivoDiretorio);
+    arqCestos = new ArquivoTransacional(nomeArquivoCestos);
 
     // Se o diretório ou os cestos estiverem vazios, cria um novo diretório e lista
     // de cestos
@@ -298,178 +335,265 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
       arqCestos.seek(0);
       arqCestos.write(bd);
     }
-  }
 
-  public boolean create(T elem) throws Exception {
-
-    // Carrega TODO o diretório para a memória
-    byte[] bd = new byte[(int) arqDiretorio.length()];
-    arqDiretorio.seek(0);
-    arqDiretorio.read(bd);
-    diretorio = new Diretorio();
-    diretorio.fromByteArray(bd);
+    boolean arquivosNovos = diretorio != null;
+    String chave = new File(nomeArquivoDiretorio).getCanonicalPath();
+    synchronized (diretorios) {
+      if (arquivosNovos) {
+        diretorios.put(chave, diretorio); // diretório recém-criado
+      } else {
+        diretorio = diretorios.get(chave);
+        if (diretorio == null) {
+          diretorio = new Diretorio();
+          carregarDiretorio();
+          diretorios.put(chave, diretorio);
+        }
+      }
+    }
 
-    // Identifica a hash do diretório,
-    int i = diretorio.hash(elem.hashCode());
+    String chaveCestos = new File(nomeArquivoCestos).getCanonicalPath();
+    synchronized (caches) {
+      cache = caches.computeIfAbsent(chaveCestos, k -> new CacheCestos());
+      if (arquivosNovos) {
+        cache.limpar();
+      }
+    }
+  }
 
-    // Recupera o cesto
-    long enderecoCesto = diretorio.endereço(i);
-    Cesto c = new Cesto(construtor, quantidadeDadosPorCesto);
+  // Obtém o cesto do endereço, do cache ou do arquivo
+  @SuppressWarnings("unchecked")
+  private Cesto lerCesto(long endereco) throws Exception {
+    LogTransacoes.getInstance().aoAbortar(cache, cache::limpar);
+    Cesto c = (Cesto) cache.cestos.get(endereco);
+    if (c != null)
+      return c;
+    c = new Cesto(construtor, quantidadeDadosPorCesto);
     byte[] ba = new byte[c.size()];
-    arqCestos.seek(enderecoCesto);
+    arqCestos.seek(endereco);
     arqCestos.read(ba);
     c.fromByteArray(ba);
+    guardarNoCache(endereco, c);
+    return c;
+  }
 
-    // Testa se a chave já não existe no cesto
-    if (c.read(elem.hashCode()) != null)
-      throw new Exception("Elemento já existe");
-
-    // Testa se o cesto já não está cheio
-    // Se não estiver, create o par de chave e dado
-    if (!c.full()) {
-      // Insere a chave no cesto e o atualiza
-      c.create(elem);
-      arqCestos.seek(enderecoCesto);
+  // Registra a alteração de um cesto: dentro de uma transação, ele só é
+  // gravado antes da confirmação; fora dela, é gravado imediatamente
+  private void gravarCesto(long endereco, Cesto c) throws Exception {
+    guardarNoCache(endereco, c);
+    LogTransacoes log = LogTransacoes.getInstance();
+    if (log.emTransacao()) {
+      cache.sujos.add(endereco);
+      log.aoAbortar(cache, cache::limpar);
+      log.antesDeConfirmar(cache, this::gravarSujos);
+    } else {
+      arqCestos.seek(endereco);
       arqCestos.write(c.toByteArray());
-      return true;
     }
+  }
 
-    // Duplica o diretório
-    byte pl = c.profundidadeLocal;
-    if (pl >= diretorio.profundidadeGlobal)
-      diretorio.duplica();
-    byte pg = diretorio.profundidadeGlobal;
-
-    // Cria os novos cestos, com os seus dados no arquivo de cestos
-    Cesto c1 = new Cesto(construtor, quantidadeDadosPorCesto, pl + 1);
-    arqCestos.seek(enderecoCesto);
-    arqCestos.write(c1.toByteArray());
-
-    Cesto c2 = new Cesto(construtor, quantidadeDadosPorCesto, pl + 1);
-    long novoEndereco = arqCestos.length();
-    arqCestos.seek(novoEndereco);
-    arqCestos.write(c2.toByteArray());
-
-    // Atualiza os dados no diretório
-    int inicio = diretorio.hash2(elem.hashCode(), c.profundidadeLocal);
-    int deslocamento = (int) Math.pow(2, pl);
-    int max = (int) Math.pow(2, pg);
-    boolean troca = false;
-    for (int j = inicio; j < max; j += deslocamento) {
-      if (troca)
-        diretorio.atualizaEndereco(j, novoEndereco);
-      troca = !troca;
+  @SuppressWarnings("unchecked")
+  private void guardarNoCache(long endereco, Cesto c) throws Exception {
+    cache.cestos.put(endereco, c);
+    Iterator<Map.Entry<Long, Object>> it = cache.cestos.entrySet().iterator();
+    while (cache.cestos.size() > CacheCestos.CAPACIDADE) {
+      Map.Entry<Long, Object> maisAntigo = it.next();
+      if (cache.sujos.remove(maisAntigo.getKey())) {
+        arqCestos.seek(maisAntigo.getKey());
+        arqCestos.write(((Cesto) maisAntigo.getValue()).toByteArray());
+      }
+      it.remove();
     }
+  }
 
-    // Atualiza o arquivo do diretório
-    bd = diretorio.toByteArray();
-    arqDiretorio.seek(0);
-    arqDiretorio.write(bd);
-
-    // Reinsere as chaves do cesto antigo
-    for (int j = 0; j < c.quantidade; j++) {
-      create(c.elementos.get(j));
+  // Grava no arquivo todos os cestos alterados que ainda estão só no cache
+  @SuppressWarnings("unchecked")
+  private void gravarSujos() throws Exception {
+    for (Long endereco : cache.sujos) {
+      arqCestos.seek(endereco);
+      arqCestos.write(((Cesto) cache.cestos.get(endereco)).toByteArray());
     }
-    create(elem); // insere o nome elemento
-    return true;
-
+    cache.sujos.clear();
   }
 
-  public T read(int chave) throws Exception {
+  // Cópia independente do elemento: os cestos do cache são compartilhados,
+  // então o chamador nunca recebe nem entrega um elemento que fique neles
+  private T copia(T elem) throws Exception {
+    T c = construtor.newInstance();
+    c.fromByteArray(elem.toByteArray());
+    return c;
+  }
 
-    // Carrega o diretório
+  // Lê o diretório do arquivo para o objeto em memória (o mesmo objeto é
+  // reaproveitado, para que todas as instâncias enxerguem o conteúdo lido)
+  private void carregarDiretorio() throws Exception {
     byte[] bd = new byte[(int) arqDiretorio.length()];
     arqDiretorio.seek(0);
-    arqDiretorio.read(bd);
-    diretorio = new Diretorio();
+    arqDiretorio.readFully(bd);
     diretorio.fromByteArray(bd);
+  }
 
-    // Identifica a hash do diretório,
-    int i = diretorio.hash(chave);
+  public boolean create(T elem) throws Exception {
+    return LogTransacoes.getInstance().ler(() -> {
+      // Uma divisão de cesto altera o diretório em memória; se a transação for
+      // abortada, ele volta a ser lido do arquivo
+      LogTransacoes.getInstance().aoAbortar(diretorio, this::carregarDiretorio);
+
+      int chave = elem.hashCode();
+      boolean duplicou = false;
+      ArrayList<Integer> entradasAlteradas = new ArrayList<>();
+
+      // Cada volta divide o cesto cheio em que o elemento deveria entrar; se
+      // todas as chaves forem para o mesmo lado, a divisão se repete
+      while (true) {
+
+        // Identifica a hash do diretório e recupera o cesto
+        long enderecoCesto = diretorio.endereço(diretorio.hash(chave));
+        Cesto c = lerCesto(enderecoCesto);
+
+        // Testa se a chave já não existe no cesto
+        if (c.read(chave) != null)
+          throw new Exception("Elemento já existe");
+
+        // Se o cesto não estiver cheio, insere o elemento e grava o diretório
+        // uma única vez, caso tenha havido divisões
+        if (!c.full()) {
+          c.create(copia(elem));
+          gravarCesto(enderecoCesto, c);
+          gravarDiretorio(duplicou, entradasAlteradas);
+          return true;
+        }
+
+        // Duplica o diretório
+        byte pl = c.profundidadeLocal;
+        if (pl >= diretorio.profundidadeGlobal) {
+          if (!diretorio.duplica())
+            throw new Exception("Profundidade máxima do diretório atingida");
+          duplicou = true;
+        }
+        byte pg = diretorio.profundidadeGlobal;
+
+        // O novo cesto fica no final do arquivo de cestos
+        long novoEndereco = arqCestos.length();
+
+        // Atualiza os dados no diretório
+        int inicio = diretorio.hash2(chave, pl);
+        int deslocamento = (int) Math.pow(2, pl);
+        int max = (int) Math.pow(2, pg);
+        boolean troca = false;
+        for (int j = inicio; j < max; j += deslocamento) {
+          if (troca) {
+            diretorio.atualizaEndereco(j, novoEndereco);
+            entradasAlteradas.add(j);
+          }
+          troca = !troca;
+        }
+
+        // Redistribui em memória as chaves do cesto antigo entre os dois cestos
+        Cesto c1 = new Cesto(construtor, quantidadeDadosPorCesto, pl + 1);
+        Cesto c2 = new Cesto(construtor, quantidadeDadosPorCesto, pl + 1);
+        for (int j = 0; j < c.quantidade; j++) {
+          T e = c.elementos.get(j);
+          if (diretorio.endereço(diretorio.hash(e.hashCode())) == novoEndereco)
+            c2.create(e);
+          else
+            c1.create(e);
+        }
+
+        // O novo cesto é gravado já, para reservar o seu endereço no arquivo
+        gravarCesto(enderecoCesto, c1);
+        arqCestos.seek(novoEndereco);
+        arqCestos.write(c2.toByteArray());
+        guardarNoCache(novoEndereco, c2);
+      }
 
-    // Recupera o cesto
-    long enderecoCesto = diretorio.endereço(i);
-    Cesto c = new Cesto(construtor, quantidadeDadosPorCesto);
-    byte[] ba = new byte[c.size()];
-    arqCestos.seek(enderecoCesto);
-    arqCestos.read(ba);
-    c.fromByteArray(ba);
+    });
+  }
 
-    return c.read(chave);
+  // Grava o diretório após as divisões de um create: inteiro, se ele foi
+  // duplicado, ou apenas as entradas que passaram a apontar para cestos novos
+  private void gravarDiretorio(boolean completo, ArrayList<Integer> entradasAlteradas) throws Exception {
+    if (completo) {
+      byte[] bd = diretorio.toByteArray();
+      arqDiretorio.seek(0);
+      arqDiretorio.write(bd);
+      return;
+    }
+    byte[] endereco = new byte[8];
+    for (int j : entradasAlteradas) {
+      long e = diretorio.endereço(j);
+      for (int k = 0; k < 8; k++)
+        endereco[k] = (byte) (e >>> (56 - 8 * k));
+      arqDiretorio.seek(1 + 8L * j); // 1 byte de profundidade global
+      arqDiretorio.write(endereco);
+    }
   }
 
-  public boolean update(T elem) throws Exception {
+  // Indica se a hash não tem nenhum elemento (diretório com um único cesto, vazio)
+  public boolean empty() throws Exception {
+    return LogTransacoes.getInstance().ler(
+        () -> diretorio.profundidadeGlobal == 0 && lerCesto(diretorio.endereço(0)).empty());
+  }
 
-    // Carrega o diretório
-    byte[] bd = new byte[(int) arqDiretorio.length()];
-    arqDiretorio.seek(0);
-    arqDiretorio.read(bd);
-    diretorio = new Diretorio();
-    diretorio.fromByteArray(bd);
+  public T read(int chave) throws Exception {
+    return LogTransacoes.getInstance().ler(() -> {
+      // Identifica a hash do diretório,
+      int i = diretorio.hash(chave);
 
-    // Identifica a hash do diretório,
-    int i = diretorio.hash(elem.hashCode());
+      // Recupera o cesto
+      long enderecoCesto = diretorio.endereço(i);
+      Cesto c = lerCesto(enderecoCesto);
 
-    // Recupera o cesto
-    long enderecoCesto = diretorio.endereço(i);
-    Cesto c = new Cesto(construtor, quantidadeDadosPorCesto);
-    byte[] ba = new byte[c.size()];
-    arqCestos.seek(enderecoCesto);
-    arqCestos.read(ba);
-    c.fromByteArray(ba);
+      T elem = c.read(chave);
+      return elem == null ? null : copia(elem);
+    });
+  }
 
-    // atualiza o dado
-    if (!c.update(elem))
-      return false;
+  public boolean update(T elem) throws Exception {
+    return LogTransacoes.getInstance().ler(() -> {
+      // Identifica a hash do diretório,
+      int i = diretorio.hash(elem.hashCode());
 
-    // Atualiza o cesto
-    arqCestos.seek(enderecoCesto);
-    arqCestos.write(c.toByteArray());
-    return true;
+      // Recupera o cesto
+      long enderecoCesto = diretorio.endereço(i);
+      Cesto c = lerCesto(enderecoCesto);
 
-  }
+      // atualiza o dado
+      if (!c.update(copia(elem)))
+        return false;
 
-  public boolean delete(int chave) throws Exception {
+      // Atualiza o cesto
+      gravarCesto(enderecoCesto, c);
+      return true;
 
-    // Carrega o diretório
-    byte[] bd = new byte[(int) arqDiretorio.length()];
-    arqDiretorio.seek(0);
-    arqDiretorio.read(bd);
-    diretorio = new Diretorio();
-    diretorio.fromByteArray(bd);
+    });
+  }
 
-    // Identifica a hash do diretório,
-    int i = diretorio.hash(chave);
+  public boolean delete(int chave) throws Exception {
+    return LogTransacoes.getInstance().ler(() -> {
+      // Identifica a hash do diretório,
+      int i = diretorio.hash(chave);
 
-    // Recupera o cesto
-    long enderecoCesto = diretorio.endereço(i);
-    Cesto c = new Cesto(construtor, quantidadeDadosPorCesto);
-    byte[] ba = new byte[c.size()];
-    arqCestos.seek(enderecoCesto);
-    arqCestos.read(ba);
-    c.fromByteArray(ba);
+      // Recupera o cesto
+      long enderecoCesto = diretorio.endereço(i);
+      Cesto c = lerCesto(enderecoCesto);
 
-    // delete a chave
-    if (!c.delete(chave))
-      return false;
+      // delete a chave
+      if (!c.delete(chave))
+        return false;
 
-    // Atualiza o cesto
-    arqCestos.seek(enderecoCesto);
-    arqCestos.write(c.toByteArray());
-    return true;
+      // Atualiza o cesto
+      gravarCesto(enderecoCesto, c);
+      return true;
+    });
   }
 
   public void print() {
     try {
-      byte[] bd = new byte[(int) arqDiretorio.length()];
-      arqDiretorio.seek(0);
-      arqDiretorio.read(bd);
-      diretorio = new Diretorio();
-      diretorio.fromByteArray(bd);
       System.out.println("\nDIRETÓRIO ------------------");
       System.out.println(diretorio);
 
       System.out.println("\nCESTOS ---------------------");
+      gravarSujos();
       arqCestos.seek(0);
       while (arqCestos.getFilePointer() != arqCestos.length()) {
         System.out.println("Endereço: " + arqCestos.getFilePointer());
@@ -492,6 +616,7 @@ public class HashExtensivel<T extends RegistroHashExtensivel<T>> {
   public ArrayList<T> listAll() throws Exception {
     ArrayList<T> todosElementos = new ArrayList<>();
     
+    gravarSujos(); // a varredura lê o arquivo
     arqCestos.seek(0);
     while (arqCestos.getFilePointer() < arqCestos.length()) {
       Cesto c = new Cesto(construtor, quantidadeDadosPorCesto);
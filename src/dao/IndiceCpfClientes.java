@@ -0,0 +1,167 @@
+package dao;
+
+import java.io.RandomAccessFile;
+
+/**
+ * Índice único CPF -> ID do cliente, em uma Hash Extensível.
+ *
+ * A chave da hash é um resumo (int) do CPF normalizado, e dois CPFs podem ter o
+ * mesmo resumo. Como a hash só guarda uma entrada por chave, uma colisão é
+ * resolvida por sondagem linear: o CPF vai para a próxima chave livre
+ * (resumo + 1, resumo + 2, ...). Cada entrada guarda o CPF completo, então a
+ * busca segue as chaves ocupadas até achar o CPF ou uma chave livre.
+ *
+ * Na remoção, as entradas seguintes da sequência que dependiam da chave
+ * removida são trazidas para trás, para que nenhuma busca pare antes delas.
+ */
+class IndiceCpfClientes {
+    private static final int REGISTROS_POR_CESTO = 8;
+    // Conteúdo do arquivo de controle: versão da chave (ver cpfNormalizado).
+    // Índices sem o arquivo usam o CPF sem o 1 à esquerda e são remontados
+    private static final int VERSAO = 2;
+
+    private HashExtensivel<RegistroCpfCliente> hash;
+    private RandomAccessFile controle;
+
+    /**
+     * @param caminhoBase prefixo dos arquivos (ex.: "src/dados/clientes/clientes")
+     */
+    IndiceCpfClientes(String caminhoBase) throws Exception {
+        hash = new HashExtensivel<>(
+            RegistroCpfCliente.class.getConstructor(),
+            REGISTROS_POR_CESTO,
+            caminhoBase + "_cpf.dir",
+            caminhoBase + "_cpf.db"
+        );
+        controle = new ArquivoTransacional(caminhoBase + "_cpf.ver");
+    }
+
+    // Um índice novo, ou com a chave antiga, ainda precisa ser montado
+    boolean precisaMontar() throws Exception {
+        return controle.length() == 0;
+    }
+
+    void marcarMontado() throws Exception {
+        if (controle.length() == 0) {
+            controle.seek(0);
+            controle.writeInt(VERSAO);
+        }
+    }
+
+    /**
+     * Remove a entrada do CPF com a chave antiga (sem o 1 à esquerda), se
+     * houver. Uma chave antiga pode coincidir com a chave atual de outro CPF,
+     * então todas as entradas antigas devem sair antes de inserir as atuais.
+     */
+    void removerChaveAntiga(String cpf) throws Exception {
+        long antigo = IndiceCpfPets.cpfNumerico(cpf);
+        if (antigo >= 0) {
+            remover(antigo);
+        }
+    }
+
+    // Máximo de dígitos que cabem em um long depois do 1 à esquerda
+    private static final int MAX_DIGITOS = 17;
+
+    /**
+     * CPF apenas com os dígitos, como número, com um 1 à esquerda para que os
+     * zeros iniciais façam parte do valor: "01234567890" e "1234567890" são
+     * CPFs diferentes. Formatações diferentes dos mesmos dígitos
+     * ("012.345.678-90") têm o mesmo valor.
+     * @return o valor, ou -1 se não houver dígitos (ou houver dígitos demais)
+     */
+    static long cpfNormalizado(String cpf) {
+        String digitos = cpf == null ? "" : cpf.replaceAll("[^0-9]", "");
+        if (digitos.isEmpty() || digitos.length() > MAX_DIGITOS) {
+            return -1;
+        }
+        return Long.parseLong("1" + digitos);
+    }
+
+    // Chave não negativa: a hash usa o valor absoluto da chave
+    private static int chave(long cpf) {
+        return Long.hashCode(cpf) & 0x7FFFFFFF;
+    }
+
+    private static int proxima(int chave) {
+        return (chave + 1) & 0x7FFFFFFF;
+    }
+
+    // Distância da chave de até a chave ate, seguindo a sondagem
+    private static int distancia(int de, int ate) {
+        return (ate - de) & 0x7FFFFFFF;
+    }
+
+    // Entrada do CPF, ou null se o CPF não estiver no índice
+    private RegistroCpfCliente localizar(long cpf) throws Exception {
+        for (int k = chave(cpf); ; k = proxima(k)) {
+            RegistroCpfCliente registro = hash.read(k);
+            if (registro == null || registro.getCpf() == cpf) {
+                return registro;
+            }
+        }
+    }
+
+    /**
+     * @return ID do cliente com o CPF, ou -1 se não houver
+     */
+    int buscar(String cpf) throws Exception {
+        long numero = cpfNormalizado(cpf);
+        if (numero < 0) {
+            return -1;
+        }
+        RegistroCpfCliente registro = localizar(numero);
+        return registro == null ? -1 : registro.getIdCliente();
+    }
+
+    /**
+     * Associa o CPF ao cliente. Se o CPF já estiver no índice, a entrada passa
+     * a apontar para o cliente informado.
+     */
+    void inserir(String cpf, int idCliente) throws Exception {
+        long numero = cpfNormalizado(cpf);
+        if (numero < 0) {
+            return;
+        }
+        for (int k = chave(numero); ; k = proxima(k)) {
+            RegistroCpfCliente registro = hash.read(k);
+            if (registro == null) {
+                hash.create(new RegistroCpfCliente(k, numero, idCliente));
+                return;
+            }
+            if (registro.getCpf() == numero) {
+                registro.setIdCliente(idCliente);
+                hash.update(registro);
+                return;
+            }
+        }
+    }
+
+    boolean remover(String cpf) throws Exception {
+        long numero = cpfNormalizado(cpf);
+        return numero >= 0 && remover(numero);
+    }
+
+    private boolean remover(long numero) throws Exception {
+        RegistroCpfCliente removido = localizar(numero);
+        if (removido == null) {
+            return false;
+        }
+        int livre = removido.hashCode();
+        hash.delete(livre);
+
+        // Uma entrada só pode ocupar a chave livre se ela estiver no seu
+        // caminho de sondagem, isto é, entre o resumo do seu CPF e a chave atual
+        for (int k = proxima(livre); ; k = proxima(k)) {
+            RegistroCpfCliente registro = hash.read(k);
+            if (registro == null) {
+                return true;
+            }
+            if (distancia(chave(registro.getCpf()), k) >= distancia(livre, k)) {
+                hash.delete(k);
+                hash.create(new RegistroCpfCliente(livre, registro.getCpf(), registro.getIdCliente()));
+                livre = k;
+            }
+        }
+    }
+}
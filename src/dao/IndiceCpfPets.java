@@ -0,0 +1,182 @@
+package dao;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Índice secundário CPF do dono -> IDs dos pets, com listas invertidas.
+ *
+ * Uma Hash Extensível leva do CPF ao endereço da lista de pets do dono, em um
+ * arquivo de listas à parte. Cada lista é um bloco de capacidade fixa:
+ *   int capacidade, int quantidade, capacidade x (long CPF, int idPet)
+ * Quando o bloco enche, a lista é copiada para um bloco com o dobro da
+ * capacidade no final do arquivo e a hash passa a apontar para ele.
+ *
+ * A chave da hash é um resumo do CPF; por isso cada entrada da lista guarda
+ * também o CPF completo, e CPFs diferentes com o mesmo resumo compartilham a
+ * lista sem se misturar.
+ */
+class IndiceCpfPets {
+    private static final int REGISTROS_POR_CESTO = 8;
+    private static final int CAPACIDADE_INICIAL = 4;
+    private static final int TAM_CABECALHO_LISTA = 8;
+    private static final int TAM_ENTRADA = 12; // CPF (8) + id do pet (4)
+    // Cabeçalho do arquivo de listas: versão (indica que o índice já foi montado)
+    private static final int VERSAO = 1;
+
+    private HashExtensivel<RegistroListaCpf> hash;
+    private RandomAccessFile listas;
+
+    /**
+     * @param caminhoBase prefixo dos arquivos (ex.: "src/dados/pets/pets")
+     */
+    IndiceCpfPets(String caminhoBase) throws Exception {
+        hash = new HashExtensivel<>(
+            RegistroListaCpf.class.getConstructor(),
+            REGISTROS_POR_CESTO,
+            caminhoBase + "_cpf.dir",
+            caminhoBase + "_cpf.db"
+        );
+        listas = new ArquivoTransacional(caminhoBase + "_cpf.lst");
+    }
+
+    // Um índice novo ainda precisa ser montado a partir dos relacionamentos
+    boolean precisaMontar() throws Exception {
+        return listas.length() == 0;
+    }
+
+    void marcarMontado() throws Exception {
+        if (listas.length() == 0) {
+            listas.seek(0);
+            listas.writeInt(VERSAO);
+        }
+    }
+
+    // CPF apenas com os dígitos, como número (-1 se não houver dígitos)
+    static long cpfNumerico(String cpf) {
+        String digitos = cpf == null ? "" : cpf.replaceAll("[^0-9]", "");
+        return digitos.isEmpty() ? -1 : Long.parseLong(digitos);
+    }
+
+    // Chave não negativa: a hash usa o valor absoluto da chave
+    private static int chave(long cpf) {
+        return Long.hashCode(cpf) & 0x7FFFFFFF;
+    }
+
+    void inserir(String cpfDono, int idPet) throws Exception {
+        long cpf = cpfNumerico(cpfDono);
+        if (cpf < 0) {
+            return;
+        }
+        marcarMontado();
+
+        RegistroListaCpf registro = hash.read(chave(cpf));
+        if (registro == null) {
+            registro = new RegistroListaCpf(chave(cpf), novaLista(CAPACIDADE_INICIAL, new byte[0]));
+            hash.create(registro);
+        }
+
+        long endereco = registro.getEndereco();
+        listas.seek(endereco);
+        int capacidade = listas.readInt();
+        int quantidade = listas.readInt();
+        if (quantidade == capacidade) {
+            // Lista cheia: muda para um bloco com o dobro da capacidade
+            byte[] entradas = new byte[quantidade * TAM_ENTRADA];
+            listas.readFully(entradas);
+            endereco = novaLista(capacidade * 2, entradas);
+            registro.setEndereco(endereco);
+            hash.update(registro);
+        }
+
+        ByteBuffer entrada = ByteBuffer.allocate(TAM_ENTRADA);
+        entrada.putLong(cpf);
+        entrada.putInt(idPet);
+        listas.seek(endereco + TAM_CABECALHO_LISTA + (long) quantidade * TAM_ENTRADA);
+        listas.write(entrada.array());
+        listas.seek(endereco + 4);
+        listas.writeInt(quantidade + 1);
+    }
+
+    // Grava uma lista nova no final do arquivo e retorna o seu endereço
+    private long novaLista(int capacidade, byte[] entradas) throws Exception {
+        ByteBuffer bloco = ByteBuffer.allocate(TAM_CABECALHO_LISTA + capacidade * TAM_ENTRADA);
+        bloco.putInt(capacidade);
+        bloco.putInt(entradas.length / TAM_ENTRADA);
+        bloco.put(entradas);
+        long endereco = listas.length();
+        listas.seek(endereco);
+        listas.write(bloco.array());
+        return endereco;
+    }
+
+    // Lê as entradas da lista do CPF (null se o CPF não tiver lista)
+    private ByteBuffer lerEntradas(long cpf) throws Exception {
+        RegistroListaCpf registro = hash.read(chave(cpf));
+        if (registro == null) {
+            return null;
+        }
+        listas.seek(registro.getEndereco() + 4);
+        int quantidade = listas.readInt();
+        byte[] entradas = new byte[quantidade * TAM_ENTRADA];
+        listas.readFully(entradas);
+        return ByteBuffer.wrap(entradas);
+    }
+
+    List<Integer> buscar(String cpfDono) throws Exception {
+        List<Integer> idsPets = new ArrayList<>();
+        long cpf = cpfNumerico(cpfDono);
+        ByteBuffer entradas = cpf < 0 ? null : lerEntradas(cpf);
+        if (entradas == null) {
+            return idsPets;
+        }
+        while (entradas.hasRemaining()) {
+            long cpfEntrada = entradas.getLong();
+            int idPet = entradas.getInt();
+            if (cpfEntrada == cpf) {
+                idsPets.add(idPet);
+            }
+        }
+        return idsPets;
+    }
+
+    /**
+     * Remove da lista do CPF as entradas do pet indicado, ou todas as entradas
+     * do CPF se idPet for -1. A lista é compactada no próprio bloco.
+     * @return quantidade de entradas removidas
+     */
+    int remover(String cpfDono, int idPet) throws Exception {
+        long cpf = cpfNumerico(cpfDono);
+        if (cpf < 0) {
+            return 0;
+        }
+        RegistroListaCpf registro = hash.read(chave(cpf));
+        if (registro == null) {
+            return 0;
+        }
+
+        long endereco = registro.getEndereco();
+        ByteBuffer entradas = lerEntradas(cpf);
+        ByteBuffer mantidas = ByteBuffer.allocate(entradas.capacity());
+        int removidas = 0;
+        while (entradas.hasRemaining()) {
+            long cpfEntrada = entradas.getLong();
+            int idEntrada = entradas.getInt();
+            if (cpfEntrada == cpf && (idPet == -1 || idEntrada == idPet)) {
+                removidas++;
+            } else {
+                mantidas.putLong(cpfEntrada);
+                mantidas.putInt(idEntrada);
+            }
+        }
+
+        if (removidas > 0) {
+            listas.seek(endereco + 4);
+            listas.writeInt(mantidas.position() / TAM_ENTRADA);
+            listas.write(mantidas.array(), 0, mantidas.position());
+        }
+        return removidas;
+    }
+}
@@ -0,0 +1,138 @@
+package dao;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Índice único email -> ID do cliente, em uma Hash Extensível.
+ *
+ * Os emails são gravados cifrados com RSA; compará-los exigiria decifrar o
+ * email de cada cliente. O índice guarda apenas um resumo com chave (HMAC)
+ * do email normalizado (sem espaços nas pontas, em minúsculas), então uma
+ * busca calcula um resumo e lê um cesto, sem nenhuma operação RSA.
+ *
+ * A chave da hash são os primeiros 31 bits do resumo. Chaves repetidas são
+ * resolvidas por sondagem linear, como em IndiceCpfClientes.
+ */
+class IndiceEmailClientes {
+    private static final int REGISTROS_POR_CESTO = 8;
+    // Conteúdo do arquivo de controle: versão (indica que o índice já foi montado)
+    private static final int VERSAO = 1;
+
+    private HashExtensivel<RegistroEmailCliente> hash;
+    private RandomAccessFile controle;
+
+    /**
+     * @param caminhoBase prefixo dos arquivos (ex.: "src/dados/clientes/clientes")
+     */
+    IndiceEmailClientes(String caminhoBase) throws Exception {
+        hash = new HashExtensivel<>(
+            RegistroEmailCliente.class.getConstructor(),
+            REGISTROS_POR_CESTO,
+            caminhoBase + "_email.dir",
+            caminhoBase + "_email.db"
+        );
+        controle = new ArquivoTransacional(caminhoBase + "_email.ver");
+    }
+
+    // Um índice novo ainda precisa ser montado a partir dos clientes
+    boolean precisaMontar() throws Exception {
+        return controle.length() == 0;
+    }
+
+    void marcarMontado() throws Exception {
+        if (controle.length() == 0) {
+            controle.seek(0);
+            controle.writeInt(VERSAO);
+        }
+    }
+
+    static boolean vazio(String email) {
+        return email == null || email.trim().isEmpty();
+    }
+
+    private static byte[] resumo(String email) throws Exception {
+        return RSAKeyManager.getInstance().resumo(email.trim().toLowerCase());
+    }
+
+    // Chave não negativa: a hash usa o valor absoluto da chave
+    private static int chave(byte[] resumo) {
+        return ByteBuffer.wrap(resumo).getInt() & 0x7FFFFFFF;
+    }
+
+    private static int proxima(int chave) {
+        return (chave + 1) & 0x7FFFFFFF;
+    }
+
+    private static int distancia(int de, int ate) {
+        return (ate - de) & 0x7FFFFFFF;
+    }
+
+    private RegistroEmailCliente localizar(byte[] resumo) throws Exception {
+        for (int k = chave(resumo); ; k = proxima(k)) {
+            RegistroEmailCliente registro = hash.read(k);
+            if (registro == null || registro.temResumo(resumo)) {
+                return registro;
+            }
+        }
+    }
+
+    /**
+     * @return ID do cliente com o email, ou -1 se não houver
+     */
+    int buscar(String email) throws Exception {
+        if (vazio(email)) {
+            return -1;
+        }
+        RegistroEmailCliente registro = localizar(resumo(email));
+        return registro == null ? -1 : registro.getIdCliente();
+    }
+
+    void inserir(String email, int idCliente) throws Exception {
+        if (vazio(email)) {
+            return;
+        }
+        marcarMontado();
+        byte[] resumo = resumo(email);
+        for (int k = chave(resumo); ; k = proxima(k)) {
+            RegistroEmailCliente registro = hash.read(k);
+            if (registro == null) {
+                hash.create(new RegistroEmailCliente(k, resumo, idCliente));
+                return;
+            }
+            if (registro.temResumo(resumo)) {
+                registro.setIdCliente(idCliente);
+                hash.update(registro);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove o email do índice, se ele estiver associado ao cliente informado
+     */
+    boolean remover(String email, int idCliente) throws Exception {
+        if (vazio(email)) {
+            return false;
+        }
+        RegistroEmailCliente removido = localizar(resumo(email));
+        if (removido == null || removido.getIdCliente() != idCliente) {
+            return false;
+        }
+        int livre = removido.hashCode();
+        hash.delete(livre);
+
+        // Traz para a chave livre as entradas que estão no caminho de sondagem
+        for (int k = proxima(livre); ; k = proxima(k)) {
+            RegistroEmailCliente registro = hash.read(k);
+            if (registro == null) {
+                return true;
+            }
+            if (distancia(chave(registro.getResumo()), k) >= distancia(livre, k)) {
+                hash.delete(k);
+                hash.create(new RegistroEmailCliente(livre, registro.getResumo(), registro.getIdCliente()));
+                livre = k;
+            }
+        }
+    }
+}
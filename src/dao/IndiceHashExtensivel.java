@@ -8,9 +8,13 @@ import java.util.List;
  * Classe gerenciadora do índice Hash Extensível para relacionamentos Pet-Dono.
  * Encapsula a HashExtensivel e fornece métodos específicos para gerenciar
  * o relacionamento 1:N entre Cliente (Dono) e Pet.
+ *
+ * A hash de pares (CPF + ID do pet) é acompanhada de um índice secundário
+ * por CPF (IndiceCpfPets), usado nas buscas de todos os pets de um dono.
  */
 public class IndiceHashExtensivel {
     private HashExtensivel<RelacionamentoPetDono> hashExtensivel;
+    private IndiceCpfPets indiceCpf;
     private static final int REGISTROS_POR_CESTO = 5; // Quantidade de registros por cesto
     
     /**
@@ -40,6 +44,23 @@ public class IndiceHashExtensivel {
             caminhoDir,
             caminhoCestos
         );
+
+        indiceCpf = new IndiceCpfPets("src/dados/" + nomeEntidade + "/" + nomeEntidade);
+        if (indiceCpf.precisaMontar()) {
+            montarIndiceCpf();
+        }
+    }
+
+    // Monta o índice por CPF a partir dos relacionamentos já existentes
+    // (arquivos criados antes da existência desse índice)
+    private void montarIndiceCpf() throws Exception {
+        LogTransacoes.getInstance().executar(() -> {
+            for (RelacionamentoPetDono rel : hashExtensivel.listAll()) {
+                indiceCpf.inserir(rel.getCpfDono(), rel.getIdPet());
+            }
+            indiceCpf.marcarMontado();
+            return null;
+        });
     }
     
     /**
@@ -51,37 +72,30 @@ public class IndiceHashExtensivel {
      */
     public boolean inserir(String cpfDono, int idPet) throws Exception {
         RelacionamentoPetDono rel = new RelacionamentoPetDono(cpfDono, idPet);
-        return hashExtensivel.create(rel);
+        return LogTransacoes.getInstance().executar(() -> {
+            boolean inserido = hashExtensivel.create(rel);
+            if (inserido) {
+                indiceCpf.inserir(cpfDono, idPet);
+            }
+            return inserido;
+        });
     }
     
     /**
      * Busca todos os IDs de pets associados a um CPF de dono.
-     * Como agora usamos chave única (CPF + ID), precisamos varrer
-     * todos os registros e filtrar por CPF.
+     * Usa o índice por CPF: uma consulta à hash e a leitura de uma lista,
+     * sem varrer os relacionamentos.
      * @param cpfDono CPF do dono para buscar os pets
      * @return Lista com os IDs dos pets do dono
      * @throws Exception se houver erro na busca
      */
     public List<Integer> buscarIdsPetsPorCpf(String cpfDono) throws Exception {
-        List<Integer> idsPets = new ArrayList<>();
-        String cpfLimpo = cpfDono.replaceAll("[^0-9]", "");
-        
-        // Listar todos os relacionamentos e filtrar por CPF
-        List<RelacionamentoPetDono> todosRelacionamentos = hashExtensivel.listAll();
-        
-        for (RelacionamentoPetDono rel : todosRelacionamentos) {
-            String cpfRelLimpo = rel.getCpfDono().replaceAll("[^0-9]", "");
-            if (cpfRelLimpo.equals(cpfLimpo)) {
-                idsPets.add(rel.getIdPet());
-            }
-        }
-        
-        return idsPets;
+        return indiceCpf.buscar(cpfDono);
     }
     
     /**
      * Busca todos os relacionamentos de um CPF (para quando houver múltiplos pets).
-     * Este método percorre todos os relacionamentos e filtra por CPF.
+     * Os relacionamentos são montados a partir do índice por CPF.
      * @param cpfDono CPF do dono
      * @return Lista de todos os relacionamentos encontrados
      * @throws Exception se houver erro na busca
@@ -90,14 +104,8 @@ public class IndiceHashExtensivel {
         List<RelacionamentoPetDono> relacionamentos = new ArrayList<>();
         String cpfLimpo = cpfDono.replaceAll("[^0-9]", "");
         
-        // Listar todos os relacionamentos e filtrar por CPF
-        List<RelacionamentoPetDono> todosRelacionamentos = hashExtensivel.listAll();
-        
-        for (RelacionamentoPetDono rel : todosRelacionamentos) {
-            String cpfRelLimpo = rel.getCpfDono().replaceAll("[^0-9]", "");
-            if (cpfRelLimpo.equals(cpfLimpo)) {
-                relacionamentos.add(rel);
-            }
+        for (Integer idPet : indiceCpf.buscar(cpfLimpo)) {
+            relacionamentos.add(new RelacionamentoPetDono(cpfLimpo, idPet));
         }
         
         return relacionamentos;
@@ -113,7 +121,13 @@ public class IndiceHashExtensivel {
     public boolean remover(String cpfDono, int idPet) throws Exception {
         RelacionamentoPetDono rel = new RelacionamentoPetDono(cpfDono, idPet);
         int hashCode = rel.hashCode();
-        return hashExtensivel.delete(hashCode);
+        return LogTransacoes.getInstance().executar(() -> {
+            boolean removido = hashExtensivel.delete(hashCode);
+            if (removido) {
+                indiceCpf.remover(cpfDono, idPet);
+            }
+            return removido;
+        });
     }
     
     /**
@@ -123,16 +137,18 @@ public class IndiceHashExtensivel {
      * @throws Exception se houver erro na remoção
      */
     public int removerTodosPorCpf(String cpfDono) throws Exception {
-        int removidos = 0;
-        List<RelacionamentoPetDono> relacionamentos = buscarRelacionamentosPorCpf(cpfDono);
-        
-        for (RelacionamentoPetDono rel : relacionamentos) {
-            if (remover(rel.getCpfDono(), rel.getIdPet())) {
-                removidos++;
+        return LogTransacoes.getInstance().executar(() -> {
+            int removidos = 0;
+            List<RelacionamentoPetDono> relacionamentos = buscarRelacionamentosPorCpf(cpfDono);
+            
+            for (RelacionamentoPetDono rel : relacionamentos) {
+                if (remover(rel.getCpfDono(), rel.getIdPet())) {
+                    removidos++;
+                }
             }
-        }
-        
-        return removidos;
+            
+            return removidos;
+        });
     }
     
     /**
@@ -1,97 +1,268 @@
 package dao;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
+/**
+ * Índice sequencial (id -> endereço) mantido ordenado em memória.
+ *
+ * Em memória, os pares ficam em dois vetores primitivos paralelos (ids e
+ * endereços), sem um objeto por chave. Como os IDs são gerados em ordem
+ * crescente, a inserção comum é um acréscimo no final dos vetores.
+ *
+ * A persistência é feita em dois arquivos:
+ * - <entidade>.idx: snapshot ordenado com todos os pares (id, endereço)
+ * - <entidade>_idx.log: diário (journal) com as alterações feitas após o snapshot
+ *
+ * Cada inserção, remoção ou atualização apenas acrescenta um registro pequeno
+ * ao final do diário. Quando o diário cresce demais, um checkpoint compacta
+ * snapshot + diário em um novo snapshot e esvazia o diário.
+ */
 public class IndiceSequencial {
+    // Tamanho de cada registro do diário: operação (1) + id (4) + endereço (8)
+    private static final int TAM_REGISTRO_LOG = 13;
+    // Quantidade mínima de registros no diário antes de um checkpoint
+    private static final int LIMITE_MINIMO_LOG = 1024;
+
+    private static final byte OP_INSERIR = 'I';
+    private static final byte OP_REMOVER = 'R';
+    private static final byte OP_ATUALIZAR = 'A';
+
+    private static final int CAPACIDADE_INICIAL = 64;
+
+    private String caminho;     // caminho do snapshot
     private RandomAccessFile arquivo;
-    private ArrayList<RegistroIndice> indices;
-    
-    private class RegistroIndice implements Comparable<RegistroIndice> {
-        int id;
-        long endereco;
-        
-        public RegistroIndice(int id, long endereco) {
-            this.id = id;
-            this.endereco = endereco;
-        }
-        
-        @Override
-        public int compareTo(RegistroIndice outro) {
-            return Integer.compare(this.id, outro.id);
-        }
-    }
-    
+    private RandomAccessFile log;
+    private int[] ids;          // IDs em ordem crescente
+    private long[] enderecos;   // enderecos[i] corresponde a ids[i]
+    private int tamanho;        // quantidade de posições ocupadas nos vetores
+    private int registrosNoLog;
+
     public IndiceSequencial(String nomeEntidade) throws Exception {
-        String caminhoIndice = "src/dados/" + nomeEntidade + "/" + nomeEntidade + ".idx";
-        this.arquivo = new RandomAccessFile(caminhoIndice, "rw");
-        this.indices = new ArrayList<>();
-        
+        this.caminho = caminhoIndice(nomeEntidade);
+        this.arquivo = new ArquivoTransacional(caminho);
+        this.log = new ArquivoTransacional(caminhoLog(nomeEntidade));
+
         carregarIndices();
     }
-    
+
+    static String caminhoIndice(String nomeEntidade) {
+        return "src/dados/" + nomeEntidade + "/" + nomeEntidade + ".idx";
+    }
+
+    static String caminhoLog(String nomeEntidade) {
+        return "src/dados/" + nomeEntidade + "/" + nomeEntidade + "_idx.log";
+    }
+
+    // Carrega o snapshot e reaplica as alterações registradas no diário
     private void carregarIndices() throws Exception {
-        indices.clear();
+        // Se a transação for abortada, o estado em memória é recarregado
+        LogTransacoes.getInstance().aoAbortar(this, this::carregarIndices);
+
+        byte[] snapshot = new byte[(int) arquivo.length()];
         arquivo.seek(0);
-        
-        while (arquivo.getFilePointer() < arquivo.length()) {
-            int id = arquivo.readInt();
-            long endereco = arquivo.readLong();
-            indices.add(new RegistroIndice(id, endereco));
+        arquivo.readFully(snapshot);
+        ByteBuffer bb = ByteBuffer.wrap(snapshot);
+
+        // Os vetores já nascem com a capacidade necessária para o snapshot
+        int quantidade = snapshot.length / 12;
+        ids = new int[Math.max(CAPACIDADE_INICIAL, quantidade)];
+        enderecos = new long[ids.length];
+        tamanho = 0;
+        boolean ordenado = true;
+        while (bb.remaining() >= 12) {
+            ids[tamanho] = bb.getInt();
+            enderecos[tamanho] = bb.getLong();
+            if (tamanho > 0 && ids[tamanho] < ids[tamanho - 1]) {
+                ordenado = false;
+            }
+            tamanho++;
         }
-        
+
         // Garantir que os índices estejam ordenados
-        Collections.sort(indices);
+        if (!ordenado) {
+            ordenar();
+        }
+
+        reaplicarLog();
+    }
+
+    private void ordenar() {
+        ordenar(ids, enderecos, tamanho);
+    }
+
+    // Ordena os n primeiros pares dos vetores paralelos por id,
+    // usando chaves (id << 32 | posição)
+    private static void ordenar(int[] ids, long[] enderecos, int n) {
+        long[] chaves = new long[n];
+        for (int i = 0; i < n; i++) {
+            chaves[i] = ((long) ids[i] << 32) | i;
+        }
+        Arrays.sort(chaves);
+
+        int[] idsOriginais = Arrays.copyOf(ids, n);
+        long[] enderecosOriginais = Arrays.copyOf(enderecos, n);
+        for (int i = 0; i < n; i++) {
+            int origem = (int) (chaves[i] & 0xFFFFFFFFL);
+            ids[i] = idsOriginais[origem];
+            enderecos[i] = enderecosOriginais[origem];
+        }
     }
-    
+
+    /**
+     * Grava um snapshot completo e ordenado em um arquivo qualquer, forçando
+     * a gravação em disco. Usado para preparar o índice de um arquivo de dados
+     * reescrito (compactação) antes de substituí-lo. Os vetores recebidos
+     * não são alterados (a ordenação é feita em cópias).
+     */
+    static void gravarSnapshot(String caminho, int[] ids, long[] enderecos) throws Exception {
+        ids = Arrays.copyOf(ids, ids.length);
+        enderecos = Arrays.copyOf(enderecos, enderecos.length);
+        ordenar(ids, enderecos, ids.length);
+        ByteBuffer bb = ByteBuffer.allocate(ids.length * 12);
+        for (int i = 0; i < ids.length; i++) {
+            bb.putInt(ids[i]);
+            bb.putLong(enderecos[i]);
+        }
+        try (FileOutputStream fos = new FileOutputStream(caminho)) {
+            fos.write(bb.array());
+            fos.getFD().sync();
+        }
+    }
+
+    private void reaplicarLog() throws Exception {
+        // Um registro incompleto no final (queda durante a escrita) é descartado
+        long tamanhoValido = log.length() - (log.length() % TAM_REGISTRO_LOG);
+        if (tamanhoValido != log.length()) {
+            log.setLength(tamanhoValido);
+        }
+
+        byte[] dados = new byte[(int) tamanhoValido];
+        log.seek(0);
+        log.readFully(dados);
+        ByteBuffer bb = ByteBuffer.wrap(dados);
+        registrosNoLog = 0;
+        while (bb.remaining() >= TAM_REGISTRO_LOG) {
+            byte operacao = bb.get();
+            int id = bb.getInt();
+            long endereco = bb.getLong();
+
+            // As operações são idempotentes, pois o diário pode ser reaplicado
+            // sobre um snapshot que já as contém
+            if (operacao == OP_REMOVER) {
+                removerDaMemoria(id);
+            } else {
+                inserirNaMemoria(id, endereco);
+            }
+            registrosNoLog++;
+        }
+    }
+
     public void inserir(int id, long endereco) throws Exception {
-        // Inserir na posição correta para manter ordem
-        RegistroIndice novoRegistro = new RegistroIndice(id, endereco);
-        
-        int posicao = buscaBinariaInsercao(id);
-        indices.add(posicao, novoRegistro);
-        
-        salvarIndices();
+        inserirNaMemoria(id, endereco);
+        registrarNoLog(OP_INSERIR, id, endereco);
     }
-    
+
+    /**
+     * Insere vários pares de uma vez, com uma única escrita no diário
+     */
+    public void inserirTodos(int[] novosIds, long[] novosEnderecos) throws Exception {
+        LogTransacoes.getInstance().aoAbortar(this, this::carregarIndices);
+
+        ByteBuffer bb = ByteBuffer.allocate(novosIds.length * TAM_REGISTRO_LOG);
+        for (int i = 0; i < novosIds.length; i++) {
+            inserirNaMemoria(novosIds[i], novosEnderecos[i]);
+            bb.put(OP_INSERIR);
+            bb.putInt(novosIds[i]);
+            bb.putLong(novosEnderecos[i]);
+        }
+        log.seek(log.length());
+        log.write(bb.array());
+        registrosNoLog += novosIds.length;
+
+        if (registrosNoLog > Math.max(LIMITE_MINIMO_LOG, tamanho)) {
+            checkpoint();
+        }
+    }
+
     public long buscar(int id) throws Exception {
         // Busca binária na lista ordenada
         int posicao = buscaBinaria(id);
         if (posicao >= 0) {
-            return indices.get(posicao).endereco;
+            return enderecos[posicao];
         }
         return -1; // Não encontrado
     }
-    
+
     public boolean remover(int id) throws Exception {
-        int posicao = buscaBinaria(id);
-        if (posicao >= 0) {
-            indices.remove(posicao);
-            salvarIndices();
+        if (removerDaMemoria(id)) {
+            registrarNoLog(OP_REMOVER, id, -1);
             return true;
         }
         return false; // Não encontrado
     }
-    
+
     public boolean atualizar(int id, long novoEndereco) throws Exception {
         int posicao = buscaBinaria(id);
         if (posicao >= 0) {
-            indices.get(posicao).endereco = novoEndereco;
-            salvarIndices();
+            enderecos[posicao] = novoEndereco;
+            registrarNoLog(OP_ATUALIZAR, id, novoEndereco);
             return true;
         }
         return false; // Não encontrado
     }
-    
+
+    // Insere mantendo a ordem; se o id já existir, apenas atualiza o endereço
+    private void inserirNaMemoria(int id, long endereco) {
+        int posicao = buscaBinariaInsercao(id);
+        if (posicao < tamanho && ids[posicao] == id) {
+            enderecos[posicao] = endereco;
+            return;
+        }
+
+        if (tamanho == ids.length) {
+            ids = Arrays.copyOf(ids, tamanho * 2);
+            enderecos = Arrays.copyOf(enderecos, tamanho * 2);
+        }
+
+        // Desloca apenas a cauda; para IDs crescentes não há deslocamento
+        int deslocar = tamanho - posicao;
+        if (deslocar > 0) {
+            System.arraycopy(ids, posicao, ids, posicao + 1, deslocar);
+            System.arraycopy(enderecos, posicao, enderecos, posicao + 1, deslocar);
+        }
+        ids[posicao] = id;
+        enderecos[posicao] = endereco;
+        tamanho++;
+    }
+
+    private boolean removerDaMemoria(int id) {
+        int posicao = buscaBinaria(id);
+        if (posicao >= 0) {
+            int deslocar = tamanho - posicao - 1;
+            if (deslocar > 0) {
+                System.arraycopy(ids, posicao + 1, ids, posicao, deslocar);
+                System.arraycopy(enderecos, posicao + 1, enderecos, posicao, deslocar);
+            }
+            tamanho--;
+            return true;
+        }
+        return false;
+    }
+
     private int buscaBinaria(int id) {
         int inicio = 0;
-        int fim = indices.size() - 1;
-        
+        int fim = tamanho - 1;
+
         while (inicio <= fim) {
             int meio = (inicio + fim) / 2;
-            int idMeio = indices.get(meio).id;
-            
+            int idMeio = ids[meio];
+
             if (idMeio == id) {
                 return meio;
             } else if (idMeio < id) {
@@ -100,43 +271,109 @@ public class IndiceSequencial {
                 fim = meio - 1;
             }
         }
-        
+
         return -1; // Não encontrado
     }
-    
+
     private int buscaBinariaInsercao(int id) {
         int inicio = 0;
-        int fim = indices.size();
-        
+        int fim = tamanho;
+
+        // Atalho para o caso mais comum: id maior que todos os existentes
+        if (tamanho > 0 && ids[tamanho - 1] < id) {
+            return tamanho;
+        }
+
         while (inicio < fim) {
             int meio = (inicio + fim) / 2;
-            if (indices.get(meio).id < id) {
+            if (ids[meio] < id) {
                 inicio = meio + 1;
             } else {
                 fim = meio;
             }
         }
-        
+
         return inicio;
     }
-    
-    private void salvarIndices() throws Exception {
-        arquivo.setLength(0); // Limpar arquivo
-        arquivo.seek(0);
-        
-        for (RegistroIndice registro : indices) {
-            arquivo.writeInt(registro.id);
-            arquivo.writeLong(registro.endereco);
+
+    // Acrescenta uma alteração ao final do diário (uma única escrita)
+    private void registrarNoLog(byte operacao, int id, long endereco) throws Exception {
+        LogTransacoes.getInstance().aoAbortar(this, this::carregarIndices);
+        ByteBuffer bb = ByteBuffer.allocate(TAM_REGISTRO_LOG);
+        bb.put(operacao);
+        bb.putInt(id);
+        bb.putLong(endereco);
+        log.seek(log.length());
+        log.write(bb.array());
+        registrosNoLog++;
+
+        // O checkpoint custa O(n); disparando-o apenas quando o diário tem
+        // pelo menos n registros, o custo amortizado por operação é O(1)
+        if (registrosNoLog > Math.max(LIMITE_MINIMO_LOG, tamanho)) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Compacta snapshot + diário em um novo snapshot ordenado e esvazia o diário.
+     * O estado é recarregado do disco antes da escrita para incorporar também
+     * alterações feitas por outras instâncias abertas sobre os mesmos arquivos.
+     *
+     * Dentro de uma transação, o snapshot é reescrito no lugar: a reescrita
+     * vai para o log de transações junto com o diário esvaziado. Fora dela,
+     * uma queda no meio da reescrita perderia o snapshot, então o novo é
+     * gravado em um arquivo à parte, forçado para o disco e trocado com o
+     * antigo por renomeação; só então o diário é esvaziado.
+     */
+    public void checkpoint() throws Exception {
+        carregarIndices();
+
+        if (LogTransacoes.getInstance().emTransacao()) {
+            ByteBuffer bb = ByteBuffer.allocate(tamanho * 12);
+            for (int i = 0; i < tamanho; i++) {
+                bb.putInt(ids[i]);
+                bb.putLong(enderecos[i]);
+            }
+            arquivo.setLength(0); // Limpar arquivo
+            arquivo.seek(0);
+            arquivo.write(bb.array());
+        } else {
+            // O snapshot novo não passa pelo log: transações ainda no log que
+            // tocam o índice não podem ser reaplicadas sobre ele após uma queda
+            LogTransacoes.getInstance().antesDeEscritaDireta();
+            File novo = new File(caminho + ".novo");
+            gravarSnapshot(novo.getPath(), getIds(), getEnderecos());
+            arquivo.close();
+            Files.move(novo.toPath(), new File(caminho).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            arquivo = new ArquivoTransacional(caminho);
         }
+
+        // Só depois do snapshot gravado o diário pode ser descartado
+        log.setLength(0);
+        registrosNoLog = 0;
+    }
+
+    // Cópia dos ids de todos os registros presentes no índice (ordem crescente)
+    public int[] getIds() {
+        return Arrays.copyOf(ids, tamanho);
     }
-    
+
+    // Cópia dos endereços de todos os registros presentes no índice (ordem de id)
+    public long[] getEnderecos() {
+        return Arrays.copyOf(enderecos, tamanho);
+    }
+
     public int getTamanho() {
-        return indices.size();
+        return tamanho;
     }
-    
+
     public void close() throws Exception {
+        if (log != null) {
+            log.close();
+        }
         if (arquivo != null) {
             arquivo.close();
         }
     }
-}
\ No newline at end of file
+}
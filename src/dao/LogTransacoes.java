@@ -0,0 +1,465 @@
+package dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log de transações (write-ahead log) compartilhado por todos os arquivos
+ * de dados e de índices.
+ *
+ * Uma operação de DAO altera vários arquivos (dados, índice sequencial,
+ * espaços livres, hash, árvore B+). Dentro de uma transação, essas alterações
+ * ficam em páginas em memória (ver ArquivoTransacional). Na confirmação, as
+ * páginas de todos os arquivos são gravadas juntas no log, com um único
+ * fsync, e só então aplicadas aos arquivos, sem fsync. Uma queda em qualquer
+ * ponto deixa ou a transação inteira no log, e ela é reaplicada na próxima
+ * execução, ou nada dela nos arquivos.
+ *
+ * Periodicamente (checkpoint) os arquivos alterados são forçados para o disco
+ * e o log é esvaziado.
+ *
+ * Transações podem ser aninhadas: apenas a mais externa grava o log, então
+ * um conjunto de operações agrupado em uma transação custa um único fsync.
+ * Uma transação por vez; as demais threads aguardam em iniciar(), e os
+ * acessos delas aos arquivos aguardam o fim da transação em andamento.
+ *
+ * Não há pontos de salvamento: a falha de uma transação interna é fatal para
+ * a externa. As páginas pendentes são uma só para a transação inteira, e os
+ * participantes (índices em memória, caches) só sabem voltar ao último estado
+ * confirmado. Quem captura a exceção de uma operação interna não pode seguir
+ * com a transação: as operações seguintes falham e a confirmação da externa
+ * lança IllegalStateException, com a exceção interna como causa.
+ *
+ * Formato de cada transação no log:
+ *   int tamanho do corpo, corpo, int CRC32 do corpo
+ *   corpo: int quantidade de arquivos; para cada arquivo: UTF caminho,
+ *          long limite físico, long tamanho, int quantidade de páginas;
+ *          para cada página: long número, int tamanho, bytes
+ */
+public class LogTransacoes {
+    private static final String ARQUIVO_LOG = "src/dados/transacoes.wal";
+    // Tamanho do log a partir do qual é feito um checkpoint
+    private static final long LIMITE_LOG = 8L * 1024 * 1024;
+
+    private static LogTransacoes instance;
+
+    /**
+     * Ação executada pelos participantes de uma transação
+     */
+    public interface Acao {
+        void executar() throws Exception;
+    }
+
+    /**
+     * Operação executada dentro de uma transação
+     */
+    public interface Operacao<R> {
+        R executar() throws Exception;
+    }
+
+    private RandomAccessFile log;
+    private final ReentrantLock trava = new ReentrantLock(true);
+    private int profundidade;
+    private boolean abortada;
+    // Exceção que abortou uma transação interna (causa do abort da externa)
+    private Throwable causaAborto;
+
+    private final Map<String, ArquivoTransacional.Paginas> arquivos = new HashMap<>();
+    private final List<ArquivoTransacional.Paginas> participantes = new ArrayList<>();
+    private final Map<Object, Acao> acoesAbortar = new IdentityHashMap<>();
+    private final Map<Object, Acao> acoesConfirmar = new IdentityHashMap<>();
+    // Arquivos alterados desde o último checkpoint (ainda sem fsync)
+    private final Set<String> arquivosNaoSincronizados = new LinkedHashSet<>();
+
+    /**
+     * Construtor privado (Singleton). Reaplica as transações confirmadas que
+     * ficaram no log.
+     */
+    private LogTransacoes() throws Exception {
+        new File(ARQUIVO_LOG).getParentFile().mkdirs();
+        log = new RandomAccessFile(ARQUIVO_LOG, "rw");
+        recuperar();
+    }
+
+    /**
+     * Obtém a instância única do log (Singleton)
+     */
+    public static synchronized LogTransacoes getInstance() throws Exception {
+        if (instance == null) {
+            instance = new LogTransacoes();
+        }
+        return instance;
+    }
+
+    // Páginas pendentes do arquivo, compartilhadas entre as suas instâncias
+    synchronized ArquivoTransacional.Paginas registrar(String caminho) throws IOException {
+        String canonico = new File(caminho).getCanonicalPath();
+        return arquivos.computeIfAbsent(canonico, ArquivoTransacional.Paginas::new);
+    }
+
+    public void iniciar() {
+        trava.lock();
+        profundidade++;
+    }
+
+    public boolean emTransacao() {
+        return trava.isHeldByCurrentThread() && profundidade > 0;
+    }
+
+    // Acesso de um ArquivoTransacional aos arquivos e às páginas pendentes
+    // (reentrante para a thread da transação em andamento)
+    void travar() {
+        trava.lock();
+    }
+
+    void liberar() {
+        trava.unlock();
+    }
+
+    /**
+     * Confirma a transação. Em uma transação aninhada, apenas decrementa o
+     * nível; a gravação acontece ao confirmar a mais externa.
+     */
+    public void confirmar() throws Exception {
+        if (!emTransacao()) {
+            throw new IllegalStateException("Nenhuma transação em andamento");
+        }
+        try {
+            if (profundidade == 1 && !abortada) {
+                // Ainda dentro da transação: as escritas dos participantes
+                // (ex.: caches com alterações pendentes) entram nela
+                try {
+                    executarAcoesConfirmar();
+                } catch (Exception e) {
+                    profundidade--;
+                    descartar(e);
+                    throw e;
+                }
+            }
+            if (--profundidade > 0) {
+                return;
+            }
+            if (abortada) {
+                IllegalStateException erro =
+                    new IllegalStateException("Transação abortada por uma operação interna", causaAborto);
+                descartar(erro);
+                throw erro;
+            }
+            try {
+                gravar();
+            } catch (Exception e) {
+                descartar(e);
+                throw e;
+            }
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Aborta a transação. Em uma transação aninhada, a transação externa
+     * também fica marcada para ser abortada.
+     * @throws IllegalStateException se o estado em memória de algum
+     *         participante não puder ser restaurado (falhas como suprimidas)
+     */
+    public void abortar() {
+        IllegalStateException falha =
+            new IllegalStateException("Falha ao restaurar o estado após abortar a transação");
+        abortar(falha);
+        if (falha.getSuppressed().length > 0) {
+            throw falha;
+        }
+    }
+
+    // Aborta a transação; falhas ao restaurar os participantes são anexadas
+    // à causa do abort
+    private void abortar(Throwable causa) {
+        if (!emTransacao()) {
+            return;
+        }
+        try {
+            abortada = true;
+            if (--profundidade == 0) {
+                descartar(causa);
+            }
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Executa a operação em uma transação, confirmando-a ao final ou
+     * abortando-a se a operação lançar uma exceção. Dentro de uma transação
+     * já marcada para ser abortada, a operação não é executada.
+     */
+    public <R> R executar(Operacao<R> operacao) throws Exception {
+        iniciar();
+        if (abortada) {
+            IllegalStateException erro =
+                new IllegalStateException("Transação abortada por uma operação interna", causaAborto);
+            abortar(erro);
+            throw erro;
+        }
+        R resultado;
+        try {
+            resultado = operacao.executar();
+        } catch (Exception | Error e) {
+            if (causaAborto == null) {
+                causaAborto = e;
+            }
+            abortar(e);
+            throw e;
+        }
+        confirmar();
+        return resultado;
+    }
+
+    /**
+     * Executa uma leitura com a trava das transações, sem iniciar uma: se
+     * outra thread estiver em uma transação, a leitura aguarda o fim dela e
+     * não enxerga o seu estado intermediário (índices em memória, páginas).
+     * Dentro de uma transação da própria thread, enxerga as suas alterações.
+     */
+    public <R> R ler(Operacao<R> operacao) throws Exception {
+        trava.lock();
+        try {
+            return operacao.executar();
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Registra uma ação para restaurar o estado em memória de um participante
+     * (ex.: índice carregado em memória) caso a transação seja abortada.
+     * A ação é executada depois que as páginas pendentes foram descartadas.
+     * Fora de uma transação, não faz nada.
+     */
+    public void aoAbortar(Object participante, Acao acao) {
+        if (emTransacao()) {
+            acoesAbortar.putIfAbsent(participante, acao);
+        }
+    }
+
+    /**
+     * Registra uma ação a ser executada imediatamente antes da confirmação da
+     * transação, ainda dentro dela (ex.: gravar páginas alteradas em um cache).
+     * Fora de uma transação, não faz nada.
+     */
+    public void antesDeConfirmar(Object participante, Acao acao) {
+        if (emTransacao()) {
+            acoesConfirmar.putIfAbsent(participante, acao);
+        }
+    }
+
+    private void executarAcoesConfirmar() throws Exception {
+        while (!acoesConfirmar.isEmpty()) {
+            List<Acao> acoes = new ArrayList<>(acoesConfirmar.values());
+            acoesConfirmar.clear();
+            for (Acao acao : acoes) {
+                acao.executar();
+            }
+        }
+    }
+
+    void participar(ArquivoTransacional.Paginas paginas, long tamanhoFisico) {
+        paginas.ativar(tamanhoFisico);
+        participantes.add(paginas);
+    }
+
+    // Uma escrita fora de transação não está no log; se o log ainda tiver
+    // transações, reaplicá-las depois de uma queda poderia desfazer a escrita
+    void antesDeEscritaDireta() throws IOException {
+        if (log.length() > 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Descarta as páginas pendentes e restaura o estado em memória dos
+     * participantes. Todas as restaurações são tentadas; as que falham ficam
+     * como exceções suprimidas da causa (a exceção que levou ao descarte),
+     * pois o participante pode ter ficado diferente dos arquivos.
+     */
+    private void descartar(Throwable causa) {
+        for (ArquivoTransacional.Paginas paginas : participantes) {
+            paginas.descartar();
+        }
+        participantes.clear();
+        abortada = false;
+        causaAborto = null;
+        acoesConfirmar.clear();
+
+        List<Acao> acoes = new ArrayList<>(acoesAbortar.values());
+        acoesAbortar.clear();
+        for (Acao acao : acoes) {
+            try {
+                acao.executar();
+            } catch (Exception e) {
+                causa.addSuppressed(e);
+            }
+        }
+    }
+
+    // Grava a transação no log (um fsync) e aplica as páginas aos arquivos
+    private void gravar() throws Exception {
+        acoesAbortar.clear();
+        if (participantes.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(corpo);
+        out.writeInt(participantes.size());
+        for (ArquivoTransacional.Paginas paginas : participantes) {
+            out.writeUTF(paginas.caminho);
+            out.writeLong(paginas.limiteFisico);
+            out.writeLong(paginas.tamanho);
+            TreeMap<Long, byte[]> ordenadas = new TreeMap<>(paginas.alteradas);
+            out.writeInt(ordenadas.size());
+            for (Map.Entry<Long, byte[]> e : ordenadas.entrySet()) {
+                long inicio = e.getKey() * ArquivoTransacional.Paginas.TAM_PAGINA;
+                int n = (int) Math.min(ArquivoTransacional.Paginas.TAM_PAGINA, paginas.tamanho - inicio);
+                out.writeLong(e.getKey());
+                out.writeInt(n);
+                out.write(e.getValue(), 0, n);
+            }
+        }
+        byte[] dados = corpo.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(dados);
+
+        ByteArrayOutputStream registro = new ByteArrayOutputStream(dados.length + 8);
+        DataOutputStream saida = new DataOutputStream(registro);
+        saida.writeInt(dados.length);
+        saida.write(dados);
+        saida.writeInt((int) crc.getValue());
+
+        log.seek(log.length());
+        log.write(registro.toByteArray());
+        log.getFD().sync(); // ponto de confirmação da transação
+
+        aplicar(dados);
+        for (ArquivoTransacional.Paginas paginas : participantes) {
+            paginas.descartar();
+        }
+        participantes.clear();
+
+        if (log.length() > LIMITE_LOG) {
+            checkpoint();
+        }
+    }
+
+    // Aplica o corpo de uma transação aos arquivos (sem fsync). Pode ser
+    // repetido: o resultado é sempre o mesmo.
+    private void aplicar(byte[] corpo) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corpo));
+        int quantidadeArquivos = in.readInt();
+        for (int i = 0; i < quantidadeArquivos; i++) {
+            String caminho = in.readUTF();
+            long limiteFisico = in.readLong();
+            long tamanho = in.readLong();
+            int quantidadePaginas = in.readInt();
+            try (RandomAccessFile arquivo = new RandomAccessFile(caminho, "rw")) {
+                if (arquivo.length() > limiteFisico) {
+                    arquivo.setLength(limiteFisico);
+                }
+                for (int j = 0; j < quantidadePaginas; j++) {
+                    long numero = in.readLong();
+                    byte[] pagina = new byte[in.readInt()];
+                    in.readFully(pagina);
+                    arquivo.seek(numero * ArquivoTransacional.Paginas.TAM_PAGINA);
+                    arquivo.write(pagina);
+                }
+                arquivo.setLength(tamanho);
+            }
+            arquivosNaoSincronizados.add(caminho);
+        }
+    }
+
+    /**
+     * Reaplica as transações completas do log; uma transação incompleta ou
+     * corrompida no final (queda durante a gravação) é descartada. Feito na
+     * abertura do log, e pode ser repetido fora de uma transação (ex.: para
+     * verificar a recuperação), pois reaplicar uma transação não muda o
+     * resultado. Os arquivos afetados devem estar fechados: o estado em
+     * memória de quem os mantém aberto não enxerga o que foi reaplicado.
+     */
+    public void recuperar() throws Exception {
+        if (emTransacao()) {
+            throw new IllegalStateException("A recuperação não pode ser feita dentro de uma transação");
+        }
+        travar();
+        try {
+            reaplicar();
+        } finally {
+            liberar();
+        }
+    }
+
+    private void reaplicar() throws Exception {
+        byte[] conteudo = new byte[(int) log.length()];
+        log.seek(0);
+        log.readFully(conteudo);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(conteudo));
+
+        int restantes = conteudo.length;
+        while (restantes >= 8) {
+            int tamanho = in.readInt();
+            if (tamanho < 0 || tamanho > restantes - 8) {
+                break;
+            }
+            byte[] corpo = new byte[tamanho];
+            in.readFully(corpo);
+            CRC32 crc = new CRC32();
+            crc.update(corpo);
+            if (in.readInt() != (int) crc.getValue()) {
+                break;
+            }
+            aplicar(corpo);
+            restantes -= tamanho + 8;
+        }
+        checkpoint();
+    }
+
+    /**
+     * Força para o disco os arquivos alterados pelas transações do log e
+     * esvazia o log. Feito com a trava das transações, para não esvaziar o
+     * log sob uma confirmação em andamento em outra thread.
+     */
+    public void checkpoint() throws IOException {
+        travar();
+        try {
+            for (String caminho : arquivosNaoSincronizados) {
+                File arquivo = new File(caminho);
+                if (arquivo.exists()) {
+                    try (RandomAccessFile raf = new RandomAccessFile(arquivo, "rw")) {
+                        raf.getFD().sync();
+                    }
+                }
+            }
+            arquivosNaoSincronizados.clear();
+            if (log.length() > 0) {
+                log.setLength(0);
+                log.getFD().sync();
+            }
+        } finally {
+            liberar();
+        }
+    }
+}
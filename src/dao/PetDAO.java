@@ -1,40 +1,85 @@
 package dao;
 import model.Pet;
 
-public class PetDAO {
+public class PetDAO implements AutoCloseable {
     private Arquivo<Pet> arqPets;
     private IndiceHashExtensivel indiceHash;
 
     public PetDAO() throws Exception {
-        arqPets = new Arquivo<>("pets", Pet.class.getConstructor());
+        arqPets = new Arquivo<>("pets", Pet.class.getConstructor(), true);
         indiceHash = new IndiceHashExtensivel("pets");
     }
 
     public boolean incluirPet(Pet pet) throws Exception {
-        // Validar se já existe pet com mesmo nome para o mesmo dono
-        String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
-        if (cpfDono != null && !cpfDono.isEmpty()) {
-            java.util.List<Pet> petsDoMesmoDono = buscarPetsPorCpfDono(cpfDono);
-            for (Pet petExistente : petsDoMesmoDono) {
-                if (petExistente.getNome().equalsIgnoreCase(pet.getNome())) {
-                    throw new IllegalArgumentException("Já existe um pet com o nome '" + pet.getNome() + 
-                                                     "' para o dono com CPF: " + cpfDono);
+        return LogTransacoes.getInstance().executar(() -> {
+            // Validar se já existe pet com mesmo nome para o mesmo dono
+            String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
+            if (cpfDono != null && !cpfDono.isEmpty()) {
+                java.util.List<Pet> petsDoMesmoDono = buscarPetsPorCpfDono(cpfDono);
+                for (Pet petExistente : petsDoMesmoDono) {
+                    if (petExistente.getNome().equalsIgnoreCase(pet.getNome())) {
+                        throw new IllegalArgumentException("Já existe um pet com o nome '" + pet.getNome() + 
+                                                         "' para o dono com CPF: " + cpfDono);
+                    }
                 }
             }
-        }
         
-        // Criar o pet no arquivo principal
-        int idGerado = arqPets.create(pet);
+            // Criar o pet no arquivo principal
+            int idGerado = arqPets.create(pet);
         
-        if (idGerado > 0) {
-            // Inserir relacionamento na Hash Extensível
-            if (cpfDono != null && !cpfDono.isEmpty()) {
-                indiceHash.inserir(cpfDono, idGerado);
+            if (idGerado > 0) {
+                // Inserir relacionamento na Hash Extensível
+                if (cpfDono != null && !cpfDono.isEmpty()) {
+                    indiceHash.inserir(cpfDono, idGerado);
+                }
+                return true;
             }
-            return true;
-        }
         
-        return false;
+            return false;
+        });
+    }
+
+    /**
+     * Inclui vários pets de uma vez (importação em lote).
+     * Os nomes já usados por cada dono são obtidos com uma única varredura,
+     * agrupados pelo CPF normalizado, como na busca pelo índice feita por
+     * incluirPet (o mesmo CPF com ou sem pontuação é o mesmo dono); os pets são gravados com Arquivo.createAll e os relacionamentos são
+     * inseridos na Hash Extensível na mesma transação. Se algum pet for
+     * inválido, nenhum é incluído.
+     * @return quantidade de pets incluídos
+     */
+    public int incluirPets(java.util.List<Pet> pets) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            java.util.Map<Long, java.util.Set<String>> nomesPorDono = new java.util.HashMap<>();
+            for (Pet existente : listarTodosPets()) {
+                if (existente.getDono() != null) {
+                    nomesPorDono.computeIfAbsent(IndiceCpfPets.cpfNumerico(existente.getDono().getCpf()),
+                            c -> new java.util.HashSet<>())
+                        .add(existente.getNome().toLowerCase());
+                }
+            }
+
+            for (Pet pet : pets) {
+                String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
+                long cpf = IndiceCpfPets.cpfNumerico(cpfDono);
+                if (cpf >= 0
+                        && !nomesPorDono.computeIfAbsent(cpf, c -> new java.util.HashSet<>())
+                            .add(pet.getNome().toLowerCase())) {
+                    throw new IllegalArgumentException("Já existe um pet com o nome '" + pet.getNome() +
+                                                     "' para o dono com CPF: " + cpfDono);
+                }
+            }
+
+            int[] ids = arqPets.createAll(pets);
+            for (int i = 0; i < ids.length; i++) {
+                Pet pet = pets.get(i);
+                String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
+                if (cpfDono != null && !cpfDono.isEmpty()) {
+                    indiceHash.inserir(cpfDono, ids[i]);
+                }
+            }
+            return ids.length;
+        });
     }
 
     public boolean alterarPet(Pet pet) throws Exception {
@@ -64,28 +109,30 @@ public class PetDAO {
     }
 
     public boolean excluirPet(int id) throws Exception {
-        // Buscar o pet primeiro para obter o CPF do dono
-        Pet pet = arqPets.read(id);
-        if (pet == null) {
-            return false;
-        }
+        return LogTransacoes.getInstance().executar(() -> {
+            // Buscar o pet primeiro para obter o CPF do dono
+            Pet pet = arqPets.read(id);
+            if (pet == null) {
+                return false;
+            }
         
-        // Excluir em cascata: primeiro excluir todos os agendamentos deste pet
-        AgendarDAO agendarDAO = new AgendarDAO();
-        agendarDAO.excluirAgendamentosPorPet(id);
+            // Excluir em cascata: primeiro excluir todos os agendamentos deste pet
+            AgendarDAO agendarDAO = new AgendarDAO();
+            agendarDAO.excluirAgendamentosPorPet(id);
         
-        // Remover do arquivo principal
-        boolean removido = arqPets.delete(id);
+            // Remover do arquivo principal
+            boolean removido = arqPets.delete(id);
         
-        if (removido) {
-            // Remover relacionamento da Hash Extensível
-            String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
-            if (cpfDono != null && !cpfDono.isEmpty()) {
-                indiceHash.remover(cpfDono, id);
+            if (removido) {
+                // Remover relacionamento da Hash Extensível
+                String cpfDono = pet.getDono() != null ? pet.getDono().getCpf() : null;
+                if (cpfDono != null && !cpfDono.isEmpty()) {
+                    indiceHash.remover(cpfDono, id);
+                }
             }
-        }
         
-        return removido;
+            return removido;
+        });
     }
 
     public Pet buscarPet(int id) throws Exception {
@@ -114,11 +161,20 @@ public class PetDAO {
     }
 
     public java.util.List<Pet> listarTodosPets() throws Exception {
-        // Retorna todos os pets usando findAll com condição sempre verdadeira
-        return arqPets.findAll(pet -> true);
+        // Retorna todos os pets usando a varredura paralela com condição sempre verdadeira
+        return arqPets.findAllParalelo(pet -> true);
+    }
+
+    /**
+     * Compacta o arquivo de pets, descartando os registros excluídos
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar() throws Exception {
+        return arqPets.compactar();
     }
 
+    @Override
     public void close() throws Exception {
-        // Fechar o arquivo se necessário
+        arqPets.close();
     }
 }
@@ -9,17 +9,36 @@ import java.math.BigInteger;
 /**
  * Gerenciador de chaves RSA para criptografia de dados
  * Responsável por gerar, salvar, carregar e usar chaves RSA
+ *
+ * Os campos são cifrados com AES-GCM usando uma chave de dados simétrica.
+ * A chave de dados é gerada uma única vez e gravada cifrada com a chave
+ * pública RSA; ao carregar, ela é decifrada com a chave privada. Assim, cada
+ * campo custa uma cifragem simétrica em vez de uma exponenciação RSA por
+ * bloco. Textos cifrados no formato antigo (RSA por blocos, em hexadecimal)
+ * continuam sendo decifrados.
  */
 public class RSAKeyManager {
     
     private static final String ARQUIVO_CHAVE_PUBLICA = "src/dados/rsa_public.key";
     private static final String ARQUIVO_CHAVE_PRIVADA = "src/dados/rsa_private.key";
+    private static final String ARQUIVO_CHAVE_DADOS = "src/dados/rsa_dados.key";
     private static final int TAMANHO_CHAVE = 512; // bits - reduzido para otimização de espaço
-    private static final int TAMANHO_BLOCO = 32; // bytes - tamanho máximo do bloco para criptografia
+    // Versão do formato do arquivo da chave privada. O formato antigo começa
+    // com o tamanho de d (positivo); o atual, com -VERSAO_CHAVE_PRIVADA.
+    private static final int VERSAO_CHAVE_PRIVADA = 2;
+    public static final int TAMANHO_RESUMO = 16; // bytes - resumo usado nos índices de campos cifrados
+    // Texto cifrado com a chave de dados: PREFIXO_CHAVE_DADOS + Base64(IV + cifra + tag)
+    private static final String PREFIXO_CHAVE_DADOS = "$1$";
+    private static final int TAMANHO_CHAVE_DADOS = 16; // bytes (AES-128)
+    private static final int TAMANHO_IV = 12;          // bytes, recomendado para GCM
+    private static final int TAMANHO_TAG = 128;        // bits
     
     private static RSAKeyManager instance;
     private ChavePublica chavePublica;
     private ChavePrivada chavePrivada;
+    private javax.crypto.spec.SecretKeySpec chaveResumo; // derivada da chave privada, ver resumo()
+    private javax.crypto.spec.SecretKeySpec chaveDados;  // chave AES dos campos cifrados
+    private final java.security.SecureRandom aleatorio = new java.security.SecureRandom();
     
     /**
      * Construtor privado (Singleton)
@@ -48,6 +67,11 @@ public class RSAKeyManager {
         if (arquivoPublica.exists() && arquivoPrivada.exists()) {
             // Carregar chaves existentes
             carregarChaves();
+            if (new File(ARQUIVO_CHAVE_DADOS).exists()) {
+                carregarChaveDados();
+            } else {
+                gerarChaveDados(); // chaves de uma versão anterior, sem chave de dados
+            }
         } else {
             // Gerar novas chaves
             gerarNovasChaves();
@@ -63,8 +87,10 @@ public class RSAKeyManager {
         RSA rsa = new RSA(TAMANHO_CHAVE);
         this.chavePublica = rsa.getChavePublica();
         this.chavePrivada = rsa.getChavePrivada();
+        this.chaveResumo = null;
         
         salvarChaves();
+        gerarChaveDados();
         
         System.out.println("Chaves RSA geradas e salvas com sucesso!");
         System.out.println("Capacidade por bloco: " + ((chavePublica.getN().bitLength() / 8) - 11) + " bytes");
@@ -91,16 +117,72 @@ public class RSAKeyManager {
             dos.write(nBytes);
         }
         
-        // Salvar chave privada
-        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(ARQUIVO_CHAVE_PRIVADA))) {
-            byte[] dBytes = chavePrivada.getD().toByteArray();
-            byte[] nBytes = chavePrivada.getN().toByteArray();
-            
-            dos.writeInt(dBytes.length);
-            dos.write(dBytes);
-            dos.writeInt(nBytes.length);
-            dos.write(nBytes);
+        salvarChavePrivada();
+    }
+    
+    /**
+     * Salva a chave privada no formato atual:
+     *   int -VERSAO_CHAVE_PRIVADA; d, n, p, q, dP, dQ, qInv (int tamanho + bytes cada)
+     * O arquivo é gravado à parte e depois substitui o anterior, para que uma
+     * queda no meio da gravação não destrua a chave existente.
+     */
+    private void salvarChavePrivada() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(-VERSAO_CHAVE_PRIVADA);
+        BigInteger[] valores = {
+            chavePrivada.getD(), chavePrivada.getN(),
+            chavePrivada.getP(), chavePrivada.getQ(),
+            chavePrivada.getDP(), chavePrivada.getDQ(), chavePrivada.getQInv()
+        };
+        for (BigInteger valor : valores) {
+            byte[] bytes = valor.toByteArray();
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
         }
+        gravarAtomicamente(ARQUIVO_CHAVE_PRIVADA, baos.toByteArray());
+    }
+    
+    // Grava o conteúdo em um arquivo temporário e o renomeia sobre o arquivo
+    // de destino, que fica sempre com o conteúdo antigo ou com o novo inteiro
+    private static void gravarAtomicamente(String caminho, byte[] conteudo) throws IOException {
+        File temporario = new File(caminho + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporario)) {
+            fos.write(conteudo);
+            fos.getFD().sync();
+        }
+        java.nio.file.Files.move(temporario.toPath(), new File(caminho).toPath(),
+            java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Gera uma nova chave de dados e a grava cifrada com a chave pública.
+     * Um byte 0x01 à esquerda preserva os zeros iniciais da chave na
+     * conversão para número.
+     */
+    private void gerarChaveDados() throws Exception {
+        byte[] chave = new byte[TAMANHO_CHAVE_DADOS + 1];
+        aleatorio.nextBytes(chave);
+        chave[0] = 1;
+        BigInteger cifrada = RSA.cifrarComChavePublica(new BigInteger(1, chave), chavePublica);
+        gravarAtomicamente(ARQUIVO_CHAVE_DADOS, cifrada.toByteArray());
+        this.chaveDados = new javax.crypto.spec.SecretKeySpec(chave, 1, TAMANHO_CHAVE_DADOS, "AES");
+    }
+    
+    // Lê a chave de dados e a decifra com a chave privada (uma única operação RSA)
+    private void carregarChaveDados() throws Exception {
+        byte[] cifrada = java.nio.file.Files.readAllBytes(new File(ARQUIVO_CHAVE_DADOS).toPath());
+        byte[] chave = RSA.decifrarComChavePrivada(new BigInteger(cifrada), chavePrivada).toByteArray();
+        if (chave.length != TAMANHO_CHAVE_DADOS + 1 || chave[0] != 1) {
+            throw new IOException("Chave de dados inválida em " + ARQUIVO_CHAVE_DADOS);
+        }
+        this.chaveDados = new javax.crypto.spec.SecretKeySpec(chave, 1, TAMANHO_CHAVE_DADOS, "AES");
+    }
+    
+    private static BigInteger lerNumero(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new BigInteger(bytes);
     }
     
     /**
@@ -124,81 +206,91 @@ public class RSAKeyManager {
         }
         
         // Carregar chave privada
+        boolean formatoAntigo;
         try (DataInputStream dis = new DataInputStream(new FileInputStream(ARQUIVO_CHAVE_PRIVADA))) {
-            int dLength = dis.readInt();
-            byte[] dBytes = new byte[dLength];
-            dis.readFully(dBytes);
-            
-            int nLength = dis.readInt();
-            byte[] nBytes = new byte[nLength];
-            dis.readFully(nBytes);
-            
-            BigInteger d = new BigInteger(dBytes);
-            BigInteger n = new BigInteger(nBytes);
-            
-            this.chavePrivada = new ChavePrivada(d, n);
+            int primeiro = dis.readInt();
+            formatoAntigo = primeiro >= 0;
+            if (formatoAntigo) {
+                // Formato antigo: apenas d e n (o primeiro int é o tamanho de d)
+                byte[] dBytes = new byte[primeiro];
+                dis.readFully(dBytes);
+                BigInteger d = new BigInteger(dBytes);
+                BigInteger n = lerNumero(dis);
+                
+                this.chavePrivada = new ChavePrivada(d, n);
+            } else if (-primeiro == VERSAO_CHAVE_PRIVADA) {
+                this.chavePrivada = new ChavePrivada(
+                    lerNumero(dis), lerNumero(dis),
+                    lerNumero(dis), lerNumero(dis),
+                    lerNumero(dis), lerNumero(dis), lerNumero(dis)
+                );
+            } else {
+                throw new IOException("Versão desconhecida do arquivo de chave privada: " + (-primeiro));
+            }
+        }
+        
+        // Chave antiga: recupera p e q a partir de e, d e n e regrava a chave
+        // no formato atual, para que a decifragem passe a usar o CRT
+        if (formatoAntigo) {
+            BigInteger[] fatores = RSA.fatorar(chavePublica.getE(), chavePrivada.getD(), chavePrivada.getN());
+            if (fatores != null) {
+                this.chavePrivada = new ChavePrivada(chavePrivada.getD(), chavePrivada.getN(), fatores[0], fatores[1]);
+                salvarChavePrivada();
+            }
         }
         
         System.out.println("Chaves RSA carregadas com sucesso!");
     }
     
     /**
-     * Criptografa um texto usando a chave pública com otimizações de espaço
-     * Estratégia: dividir texto em blocos menores e comprimir com LZW antes
+     * Criptografa um texto com a chave de dados (AES-GCM, IV aleatório)
      * @param texto texto a ser criptografado
-     * @return texto criptografado em formato compacto
+     * @return PREFIXO_CHAVE_DADOS + Base64(IV + texto cifrado + tag)
      */
     public String criptografar(String texto) throws Exception {
         if (texto == null || texto.trim().isEmpty()) {
             return texto;
         }
         
-        // OTIMIZAÇÃO 1: Dividir o texto em blocos menores
-        // Para chave de 512 bits, podemos cifrar até ~53 bytes por bloco
-        int tamanhoMaximoBloco = (chavePublica.getN().bitLength() / 8) - 11; // PKCS#1 padding overhead
-        
-        byte[] bytesOriginais = texto.getBytes("UTF-8");
-        
-        // Se o texto for pequeno, cifrar diretamente
-        if (bytesOriginais.length <= tamanhoMaximoBloco) {
-            BigInteger textoCifrado = RSA.cifrarComChavePublica(texto, chavePublica);
-            byte[] bytesCifrados = textoCifrado.toByteArray();
-            
-            // OTIMIZAÇÃO 2: Usar encoding compacto (sem padding excessivo do Base64)
-            return bytesToHex(bytesCifrados);
-        }
-        
-        // Para textos maiores, dividir em blocos
-        StringBuilder resultado = new StringBuilder();
-        int offset = 0;
-        
-        while (offset < bytesOriginais.length) {
-            int tamanhoBloco = Math.min(tamanhoMaximoBloco, bytesOriginais.length - offset);
-            byte[] bloco = new byte[tamanhoBloco];
-            System.arraycopy(bytesOriginais, offset, bloco, 0, tamanhoBloco);
-            
-            BigInteger blocoCifrado = new BigInteger(1, bloco).modPow(chavePublica.getE(), chavePublica.getN());
-            
-            if (resultado.length() > 0) {
-                resultado.append("|"); // Separador de blocos
-            }
-            resultado.append(bytesToHex(blocoCifrado.toByteArray()));
-            
-            offset += tamanhoBloco;
-        }
+        byte[] iv = new byte[TAMANHO_IV];
+        aleatorio.nextBytes(iv);
+        javax.crypto.Cipher cifra = javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+        cifra.init(javax.crypto.Cipher.ENCRYPT_MODE, chaveDados,
+                   new javax.crypto.spec.GCMParameterSpec(TAMANHO_TAG, iv));
+        byte[] cifrado = cifra.doFinal(texto.getBytes("UTF-8"));
         
-        return resultado.toString();
+        byte[] resultado = new byte[TAMANHO_IV + cifrado.length];
+        System.arraycopy(iv, 0, resultado, 0, TAMANHO_IV);
+        System.arraycopy(cifrado, 0, resultado, TAMANHO_IV, cifrado.length);
+        return PREFIXO_CHAVE_DADOS + java.util.Base64.getEncoder().encodeToString(resultado);
     }
     
     /**
-     * Converte bytes para hexadecimal (mais compacto que Base64)
+     * Indica se o texto foi cifrado no formato antigo (RSA por blocos), que
+     * deve ser cifrado de novo com a chave de dados
      */
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder hex = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            hex.append(String.format("%02x", b));
+    public static boolean formatoAntigo(String textoCriptografado) {
+        return textoCriptografado != null && !textoCriptografado.trim().isEmpty()
+            && !textoCriptografado.startsWith(PREFIXO_CHAVE_DADOS);
+    }
+    
+    /**
+     * Resumo (HMAC-SHA256 truncado) de um texto, para indexar campos cifrados
+     * sem decifrá-los. A chave do HMAC é o SHA-256 do expoente privado, então
+     * quem não tem a chave privada não consegue testar textos contra o índice.
+     * Textos iguais sempre têm o mesmo resumo; o chamador normaliza o texto.
+     * @return resumo com TAMANHO_RESUMO bytes
+     */
+    public byte[] resumo(String texto) throws Exception {
+        if (chaveResumo == null) {
+            byte[] d = chavePrivada.getD().toByteArray();
+            byte[] chave = java.security.MessageDigest.getInstance("SHA-256").digest(d);
+            chaveResumo = new javax.crypto.spec.SecretKeySpec(chave, "HmacSHA256");
         }
-        return hex.toString();
+        javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
+        mac.init(chaveResumo);
+        byte[] completo = mac.doFinal(texto.getBytes("UTF-8"));
+        return java.util.Arrays.copyOf(completo, TAMANHO_RESUMO);
     }
     
     /**
@@ -206,68 +298,105 @@ public class RSAKeyManager {
      */
     private byte[] hexToBytes(String hex) {
         int len = hex.length();
+        if (len % 2 != 0) {
+            throw new IllegalArgumentException("Hexadecimal com tamanho ímpar");
+        }
         byte[] bytes = new byte[len / 2];
         for (int i = 0; i < len; i += 2) {
-            bytes[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                                 + Character.digit(hex.charAt(i+1), 16));
+            int alto = Character.digit(hex.charAt(i), 16);
+            int baixo = Character.digit(hex.charAt(i + 1), 16);
+            if (alto < 0 || baixo < 0) {
+                throw new IllegalArgumentException("Caractere hexadecimal inválido");
+            }
+            bytes[i / 2] = (byte) ((alto << 4) + baixo);
         }
         return bytes;
     }
     
     /**
-     * Descriptografa um texto usando a chave privada
+     * Descriptografa um texto usando a chave privada. Se o texto não puder ser
+     * decifrado (ex.: dado antigo não criptografado), ele é devolvido como está.
      * @param textoCriptografado texto criptografado em formato compacto
      * @return texto original
      */
     public String descriptografar(String textoCriptografado) throws Exception {
+        try {
+            return descriptografarEstrito(textoCriptografado);
+        } catch (Exception e) {
+            System.err.println("Erro ao descriptografar: " + e.getMessage());
+            return textoCriptografado;
+        }
+    }
+    
+    /**
+     * Descriptografa um texto, lançando uma exceção se ele não puder ser
+     * decifrado, em vez de devolvê-lo como está (usado quando o resultado vai
+     * ser gravado de novo, como na migração para a chave de dados)
+     * @param textoCriptografado texto criptografado em qualquer um dos formatos
+     * @return texto original
+     */
+    public String descriptografarEstrito(String textoCriptografado) throws Exception {
         if (textoCriptografado == null || textoCriptografado.trim().isEmpty()) {
             return textoCriptografado;
         }
         
+        if (textoCriptografado.startsWith(PREFIXO_CHAVE_DADOS)) {
+            byte[] dados = java.util.Base64.getDecoder().decode(
+                textoCriptografado.substring(PREFIXO_CHAVE_DADOS.length()));
+            javax.crypto.Cipher cifra = javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+            cifra.init(javax.crypto.Cipher.DECRYPT_MODE, chaveDados,
+                       new javax.crypto.spec.GCMParameterSpec(TAMANHO_TAG, dados, 0, TAMANHO_IV));
+            return textoUtf8(cifra.doFinal(dados, TAMANHO_IV, dados.length - TAMANHO_IV));
+        }
+        
+        // Formato antigo: RSA por blocos, em hexadecimal (blocos separados por "|")
         try {
-            // Verificar se contém o separador de blocos
-            if (textoCriptografado.contains("|")) {
-                // Descriptografar múltiplos blocos
-                String[] blocos = textoCriptografado.split("\\|");
-                StringBuilder textoOriginal = new StringBuilder();
-                
-                for (String blocoHex : blocos) {
-                    byte[] bytesCifrados = hexToBytes(blocoHex);
-                    BigInteger blocoCifrado = new BigInteger(bytesCifrados);
-                    BigInteger blocoDecifrado = blocoCifrado.modPow(chavePrivada.getD(), chavePrivada.getN());
-                    
-                    textoOriginal.append(new String(blocoDecifrado.toByteArray(), "UTF-8"));
-                }
-                
-                return textoOriginal.toString();
-            } else {
-                // Descriptografar bloco único (formato hexadecimal compacto)
-                byte[] bytesCifrados = hexToBytes(textoCriptografado);
-                BigInteger cifrado = new BigInteger(bytesCifrados);
-                
-                return RSA.decifrarParaStringComChavePrivada(cifrado, chavePrivada);
+            ByteArrayOutputStream texto = new ByteArrayOutputStream();
+            for (String blocoHex : textoCriptografado.split("\\|")) {
+                BigInteger blocoCifrado = new BigInteger(hexToBytes(blocoHex));
+                texto.write(semByteDeSinal(RSA.decifrarComChavePrivada(blocoCifrado, chavePrivada)));
             }
+            return textoUtf8(texto.toByteArray());
         } catch (Exception e) {
             // Fallback: tentar formato antigo Base64
             try {
                 byte[] bytes = java.util.Base64.getDecoder().decode(textoCriptografado);
                 BigInteger cifrado = new BigInteger(bytes);
-                return RSA.decifrarParaStringComChavePrivada(cifrado, chavePrivada);
+                return textoUtf8(semByteDeSinal(RSA.decifrarComChavePrivada(cifrado, chavePrivada)));
             } catch (Exception e2) {
-                // Se falhar completamente, pode ser um dado antigo não criptografado
-                System.err.println("Erro ao descriptografar: " + e.getMessage());
-                return textoCriptografado;
+                throw e;
             }
         }
     }
     
+    // Bytes de um número decifrado, sem o zero que toByteArray acrescenta
+    // quando o primeiro byte tem o bit mais alto ligado
+    private static byte[] semByteDeSinal(BigInteger numero) {
+        byte[] bytes = numero.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0 && bytes[1] < 0) {
+            return java.util.Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return bytes;
+    }
+    
+    // Decodifica UTF-8 rejeitando sequências inválidas: uma chave errada ou um
+    // texto que não estava cifrado produz bytes que não formam um texto válido
+    private static String textoUtf8(byte[] bytes) throws java.nio.charset.CharacterCodingException {
+        return java.nio.charset.StandardCharsets.UTF_8.newDecoder()
+            .decode(java.nio.ByteBuffer.wrap(bytes)).toString();
+    }
+    
     /**
-     * Verifica se o texto está criptografado (formato Base64 válido)
+     * Verifica se o texto está criptografado (com a chave de dados, ou no
+     * formato Base64 válido)
      */
     public boolean estaCriptografado(String texto) {
         if (texto == null || texto.trim().isEmpty()) {
             return false;
         }
+        if (texto.startsWith(PREFIXO_CHAVE_DADOS)) {
+            return true;
+        }
         
         try {
             java.util.Base64.getDecoder().decode(texto);
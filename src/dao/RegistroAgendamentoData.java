@@ -0,0 +1,83 @@
+package dao;
+
+import java.io.*;
+import java.time.LocalDate;
+
+/**
+ * Registro do índice de agendamentos por data
+ * Armazenado na Árvore B+ com chave composta (dia, idAgendamento), em que o
+ * dia é a data em dias desde 1970-01-01 (agendamentos sem data vêm primeiro)
+ */
+public class RegistroAgendamentoData implements RegistroArvoreBMais<RegistroAgendamentoData> {
+    private int dia;           // Primeira chave
+    private int idAgendamento; // Segunda chave (ID do agendamento no arquivo principal)
+
+    public RegistroAgendamentoData() {
+        this(-1, -1);
+    }
+
+    public RegistroAgendamentoData(int dia, int idAgendamento) {
+        this.dia = dia;
+        this.idAgendamento = idAgendamento;
+    }
+
+    public RegistroAgendamentoData(LocalDate data, int idAgendamento) {
+        this(dia(data), idAgendamento);
+    }
+
+    // Chave de uma data: dias desde 1970-01-01
+    public static int dia(LocalDate data) {
+        return data != null ? (int) data.toEpochDay() : Integer.MIN_VALUE;
+    }
+
+    public int getDia() { return dia; }
+    public int getIdAgendamento() { return idAgendamento; }
+
+    public void setDia(int dia) { this.dia = dia; }
+    public void setIdAgendamento(int idAgendamento) { this.idAgendamento = idAgendamento; }
+
+    @Override
+    public short size() {
+        // 2 inteiros (4 bytes cada) = 8 bytes
+        return 8;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        
+        dos.writeInt(dia);
+        dos.writeInt(idAgendamento);
+        
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void fromByteArray(byte[] ba) throws IOException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(ba);
+        DataInputStream dis = new DataInputStream(bais);
+        
+        dia = dis.readInt();
+        idAgendamento = dis.readInt();
+    }
+
+    @Override
+    public int compareTo(RegistroAgendamentoData obj) {
+        // Comparação por chave composta (dia, idAgendamento)
+        if (this.dia != obj.dia) {
+            return Integer.compare(this.dia, obj.dia);
+        }
+        return Integer.compare(this.idAgendamento, obj.idAgendamento);
+    }
+
+    @Override
+    public RegistroAgendamentoData clone() {
+        return new RegistroAgendamentoData(this.dia, this.idAgendamento);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Dia: %d, Agendamento: %d", dia, idAgendamento);
+    }
+}
@@ -0,0 +1,80 @@
+package dao;
+
+import java.io.*;
+
+/**
+ * Registro do índice secundário de agendamentos por serviço
+ * Armazenado na Árvore B+ com chave composta (idServico, idPet)
+ */
+public class RegistroAgendamentoServico implements RegistroArvoreBMais<RegistroAgendamentoServico> {
+    private int idServico;  // Primeira chave
+    private int idPet;      // Segunda chave
+    private int idAgendamento; // ID do agendamento no arquivo principal
+
+    public RegistroAgendamentoServico() {
+        this(-1, -1, -1);
+    }
+
+    public RegistroAgendamentoServico(int idServico, int idPet, int idAgendamento) {
+        this.idServico = idServico;
+        this.idPet = idPet;
+        this.idAgendamento = idAgendamento;
+    }
+
+    public int getIdServico() { return idServico; }
+    public int getIdPet() { return idPet; }
+    public int getIdAgendamento() { return idAgendamento; }
+
+    public void setIdServico(int idServico) { this.idServico = idServico; }
+    public void setIdPet(int idPet) { this.idPet = idPet; }
+    public void setIdAgendamento(int idAgendamento) { this.idAgendamento = idAgendamento; }
+
+    @Override
+    public short size() {
+        // 3 inteiros (4 bytes cada) = 12 bytes
+        return 12;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        
+        dos.writeInt(idServico);
+        dos.writeInt(idPet);
+        dos.writeInt(idAgendamento);
+        
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void fromByteArray(byte[] ba) throws IOException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(ba);
+        DataInputStream dis = new DataInputStream(bais);
+        
+        idServico = dis.readInt();
+        idPet = dis.readInt();
+        idAgendamento = dis.readInt();
+    }
+
+    @Override
+    public int compareTo(RegistroAgendamentoServico obj) {
+        // Comparação por chave composta (idServico, idPet)
+        // Primeiro compara por idServico
+        if (this.idServico != obj.idServico) {
+            return Integer.compare(this.idServico, obj.idServico);
+        }
+        // Se idServico for igual, compara por idPet
+        return Integer.compare(this.idPet, obj.idPet);
+    }
+
+    @Override
+    public RegistroAgendamentoServico clone() {
+        return new RegistroAgendamentoServico(this.idServico, this.idPet, this.idAgendamento);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Servico: %d, Pet: %d, Agendamento: %d", idServico, idPet, idAgendamento);
+    }
+}
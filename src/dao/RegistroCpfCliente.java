@@ -0,0 +1,71 @@
+package dao;
+
+import java.io.*;
+
+/**
+ * Entrada da Hash Extensível do índice único de clientes por CPF.
+ * Associa o CPF normalizado ao ID do cliente. A chave na hash é um resumo do
+ * CPF; o CPF completo fica gravado para distinguir CPFs com o mesmo resumo.
+ */
+public class RegistroCpfCliente implements RegistroHashExtensivel<RegistroCpfCliente> {
+    private int chave;      // posição na hash (resumo do CPF, ver IndiceCpfClientes)
+    private long cpf;       // CPF normalizado (ver IndiceCpfClientes.cpfNormalizado)
+    private int idCliente;
+
+    public static final short TAMANHO_FIXO = 16; // 4 bytes para a chave + 8 para o CPF + 4 para o ID
+
+    public RegistroCpfCliente() {
+        this(-1, -1, -1);
+    }
+
+    public RegistroCpfCliente(int chave, long cpf, int idCliente) {
+        this.chave = chave;
+        this.cpf = cpf;
+        this.idCliente = idCliente;
+    }
+
+    public long getCpf() {
+        return cpf;
+    }
+
+    public int getIdCliente() {
+        return idCliente;
+    }
+
+    public void setIdCliente(int idCliente) {
+        this.idCliente = idCliente;
+    }
+
+    @Override
+    public int hashCode() {
+        return chave;
+    }
+
+    @Override
+    public short size() {
+        return TAMANHO_FIXO;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(chave);
+        dos.writeLong(cpf);
+        dos.writeInt(idCliente);
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void fromByteArray(byte[] ba) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(ba));
+        this.chave = dis.readInt();
+        this.cpf = dis.readLong();
+        this.idCliente = dis.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return "RegistroCpfCliente{chave=" + chave + ", cpf=" + cpf + ", idCliente=" + idCliente + '}';
+    }
+}
@@ -0,0 +1,77 @@
+package dao;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Entrada da Hash Extensível do índice único de clientes por email.
+ * Associa o resumo do email (ver RSAKeyManager.resumo) ao ID do cliente;
+ * o email em si não é gravado no índice.
+ */
+public class RegistroEmailCliente implements RegistroHashExtensivel<RegistroEmailCliente> {
+    private int chave;      // posição na hash (ver IndiceEmailClientes)
+    private byte[] resumo;  // resumo do email normalizado
+    private int idCliente;
+
+    public static final short TAMANHO_FIXO = 8 + RSAKeyManager.TAMANHO_RESUMO; // chave (4) + resumo + ID (4)
+
+    public RegistroEmailCliente() {
+        this(-1, new byte[RSAKeyManager.TAMANHO_RESUMO], -1);
+    }
+
+    public RegistroEmailCliente(int chave, byte[] resumo, int idCliente) {
+        this.chave = chave;
+        this.resumo = resumo;
+        this.idCliente = idCliente;
+    }
+
+    public boolean temResumo(byte[] outro) {
+        return Arrays.equals(resumo, outro);
+    }
+
+    public byte[] getResumo() {
+        return resumo;
+    }
+
+    public int getIdCliente() {
+        return idCliente;
+    }
+
+    public void setIdCliente(int idCliente) {
+        this.idCliente = idCliente;
+    }
+
+    @Override
+    public int hashCode() {
+        return chave;
+    }
+
+    @Override
+    public short size() {
+        return TAMANHO_FIXO;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(chave);
+        dos.write(resumo);
+        dos.writeInt(idCliente);
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void fromByteArray(byte[] ba) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(ba));
+        this.chave = dis.readInt();
+        this.resumo = new byte[RSAKeyManager.TAMANHO_RESUMO];
+        dis.readFully(this.resumo);
+        this.idCliente = dis.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return "RegistroEmailCliente{chave=" + chave + ", idCliente=" + idCliente + '}';
+    }
+}
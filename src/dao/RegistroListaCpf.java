@@ -0,0 +1,63 @@
+package dao;
+
+import java.io.*;
+
+/**
+ * Entrada da Hash Extensível do índice de pets por CPF.
+ * Associa a chave do CPF (um resumo do CPF numérico) ao endereço da lista de
+ * pets no arquivo de listas.
+ */
+public class RegistroListaCpf implements RegistroHashExtensivel<RegistroListaCpf> {
+    private int chave;      // resumo do CPF
+    private long endereco;  // endereço da lista no arquivo de listas
+
+    public static final short TAMANHO_FIXO = 12; // 4 bytes para a chave + 8 bytes para o endereço
+
+    public RegistroListaCpf() {
+        this(-1, -1);
+    }
+
+    public RegistroListaCpf(int chave, long endereco) {
+        this.chave = chave;
+        this.endereco = endereco;
+    }
+
+    public long getEndereco() {
+        return endereco;
+    }
+
+    public void setEndereco(long endereco) {
+        this.endereco = endereco;
+    }
+
+    @Override
+    public int hashCode() {
+        return chave;
+    }
+
+    @Override
+    public short size() {
+        return TAMANHO_FIXO;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(chave);
+        dos.writeLong(endereco);
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void fromByteArray(byte[] ba) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(ba));
+        this.chave = dis.readInt();
+        this.endereco = dis.readLong();
+    }
+
+    @Override
+    public String toString() {
+        return "RegistroListaCpf{chave=" + chave + ", endereco=" + endereco + '}';
+    }
+}
@@ -1,11 +1,11 @@
 package dao;
 import model.Servico;
 
-public class ServicoDAO {
+public class ServicoDAO implements AutoCloseable {
     private Arquivo<Servico> arqServicos;
 
     public ServicoDAO() throws Exception {
-        arqServicos = new Arquivo<>("servicos", Servico.class.getConstructor());
+        arqServicos = new Arquivo<>("servicos", Servico.class.getConstructor(), true);
     }
 
     public boolean incluirServico(Servico servico) throws Exception {
@@ -17,6 +17,28 @@ public class ServicoDAO {
         return arqServicos.create(servico) > 0;
     }
 
+    /**
+     * Inclui vários serviços de uma vez (importação em lote).
+     * Se algum nome já existir (no arquivo ou no próprio lote), nenhum
+     * serviço é incluído.
+     * @return quantidade de serviços incluídos
+     */
+    public int incluirServicos(java.util.List<Servico> servicos) throws Exception {
+        return LogTransacoes.getInstance().executar(() -> {
+            java.util.Set<String> nomes = new java.util.HashSet<>();
+            for (Servico existente : arqServicos.findAll(s -> true)) {
+                nomes.add(existente.getNome().toLowerCase());
+            }
+            for (Servico servico : servicos) {
+                if (!nomes.add(servico.getNome().toLowerCase())) {
+                    throw new IllegalArgumentException("Já existe um serviço cadastrado com o nome: " + servico.getNome());
+                }
+            }
+
+            return arqServicos.createAll(servicos).length;
+        });
+    }
+
     public boolean alterarServico(Servico servico) throws Exception {
         // Buscar serviço existente
         Servico servicoExistente = arqServicos.read(servico.getId());
@@ -36,11 +58,13 @@ public class ServicoDAO {
     }
 
     public boolean excluirServico(int id) throws Exception {
-        // Excluir em cascata: primeiro excluir todos os agendamentos deste serviço
-        AgendarDAO agendarDAO = new AgendarDAO();
-        agendarDAO.excluirAgendamentosPorServico(id);
+        return LogTransacoes.getInstance().executar(() -> {
+            // Excluir em cascata: primeiro excluir todos os agendamentos deste serviço
+            AgendarDAO agendarDAO = new AgendarDAO();
+            agendarDAO.excluirAgendamentosPorServico(id);
         
-        return arqServicos.delete(id);
+            return arqServicos.delete(id);
+        });
     }
 
     public Servico buscarServico(int id) throws Exception {
@@ -56,7 +80,16 @@ public class ServicoDAO {
         return arqServicos.findAll(s -> s.getValor() >= valorMin && s.getValor() <= valorMax);
     }
 
+    /**
+     * Compacta o arquivo de serviços, descartando os registros excluídos
+     * @return quantidade de bytes recuperados
+     */
+    public long compactar() throws Exception {
+        return arqServicos.compactar();
+    }
+
+    @Override
     public void close() throws Exception {
-        // Fechar o arquivo se necessário
+        arqServicos.close();
     }
 }
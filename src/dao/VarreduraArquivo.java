@@ -0,0 +1,121 @@
+package dao;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Motor de varredura sequencial dos registros de um Arquivo.
+ *
+ * Em vez de ler lápide, tamanho e dados de cada registro com chamadas
+ * separadas ao RandomAccessFile, o arquivo é lido em blocos grandes e os
+ * registros são extraídos do buffer em memória. Quando o Arquivo usa leitura
+ * mapeada, o próprio mapeamento faz o papel de bloco e nenhuma leitura extra
+ * é necessária.
+ *
+ * Uso (cursor):
+ *   while (varredura.proximo()) { varredura.getEndereco(); varredura.getDados(); }
+ * Apenas registros válidos (sem lápide) são retornados.
+ */
+class VarreduraArquivo {
+    static final int TAM_BLOCO = 64 * 1024;
+
+    private ArquivoTransacional arquivo; // null quando a varredura usa o mapeamento
+    private ByteBuffer bloco;
+    private long inicioBloco;   // posição no arquivo do primeiro byte do bloco
+    private long fim;           // posição final (exclusiva) da varredura
+
+    private long endereco;      // endereço do registro corrente
+    private byte[] dados;       // dados do registro corrente
+
+    // Varredura por blocos lidos do arquivo, com leituras posicionais (o
+    // ponteiro do arquivo é compartilhado por quem usa o Arquivo)
+    VarreduraArquivo(ArquivoTransacional arquivo, long inicio, long fim) {
+        this.arquivo = arquivo;
+        this.fim = fim;
+        this.bloco = ByteBuffer.allocate(TAM_BLOCO);
+        this.bloco.limit(0);
+        this.inicioBloco = inicio;
+    }
+
+    // Varredura sobre um mapeamento que já cobre o intervalo [inicio, fim)
+    VarreduraArquivo(ByteBuffer mapa, long inicio, long fim) {
+        this.fim = fim;
+        this.bloco = mapa.duplicate();
+        this.bloco.limit((int) fim);
+        this.bloco.position((int) inicio);
+        this.inicioBloco = 0;
+    }
+
+    // Posição, no arquivo, do próximo byte ainda não consumido do bloco
+    private long posicaoAtual() {
+        return inicioBloco + bloco.position();
+    }
+
+    // Garante que pelo menos n bytes estejam disponíveis no bloco,
+    // lendo o próximo trecho do arquivo se necessário
+    private boolean garantir(int n) throws IOException {
+        if (bloco.remaining() >= n) {
+            return true;
+        }
+        if (arquivo == null) {
+            return false;
+        }
+
+        long posicao = posicaoAtual();
+        if (posicao + n > fim) {
+            return false;
+        }
+
+        // Um registro nunca passa de 3 + 32767 bytes, então sempre cabe no bloco
+        int aLer = (int) Math.min(bloco.capacity(), fim - posicao);
+        if (arquivo.lerEm(posicao, bloco.array(), 0, aLer) < aLer) {
+            throw new EOFException();
+        }
+        bloco.clear();
+        bloco.limit(aLer);
+        inicioBloco = posicao;
+        return true;
+    }
+
+    /**
+     * Avança para o próximo registro válido.
+     * @return false quando não houver mais registros
+     */
+    boolean proximo() throws IOException {
+        while (garantir(3)) {
+            long enderecoRegistro = posicaoAtual();
+            byte lapide = bloco.get();
+            short tamanho = bloco.getShort();
+
+            if (lapide != ' ') {
+                // Registro excluído: apenas salta os dados
+                if (bloco.remaining() >= tamanho) {
+                    bloco.position(bloco.position() + tamanho);
+                } else {
+                    long destino = posicaoAtual() + tamanho;
+                    bloco.limit(0);
+                    inicioBloco = destino;
+                }
+                continue;
+            }
+
+            if (!garantir(tamanho)) {
+                return false; // registro truncado no final do arquivo
+            }
+            dados = new byte[tamanho];
+            bloco.get(dados);
+            endereco = enderecoRegistro;
+            return true;
+        }
+        return false;
+    }
+
+    long getEndereco() {
+        return endereco;
+    }
+
+    byte[] getDados() {
+        return dados;
+    }
+}
@@ -31,13 +31,46 @@ public class Agendar implements Registro {
     public int getIdPet() { return idPet; }
     public int getIdServico() { return idServico; }
 
+    // Versão do formato dos registros, gravada no cabeçalho do arquivo de agendamentos
+    public static final int VERSAO_FORMATO = 2;
+    private static final int TAMANHO_REGISTRO = 17;
+    // Dia gravado quando o agendamento não tem data
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+
+    // Identifica o formato direto dos bytes serializados, sem desserializar o registro.
+    // Formato atual:  id (4) | versão (1) | data (4, dia desde 1970-01-01) | idPet (4) | idServico (4)
+    // Formato antigo: id (4) | data (2 + n, writeUTF) | idPet (4) | idServico (4)
+    // No formato antigo o byte 4 é o byte alto do tamanho da data, sempre 0.
+    public static boolean formatoAntigo(byte[] b) {
+        return b[4] != VERSAO_FORMATO;
+    }
+
+    /**
+     * Converte os bytes de um registro para o formato atual. Registros no
+     * formato atual são apenas recortados no tamanho fixo (um registro
+     * regravado em um espaço maior fica com bytes sobrando no final).
+     */
+    public static byte[] converterFormato(byte[] b) {
+        if (!formatoAntigo(b)) {
+            return b.length == TAMANHO_REGISTRO ? b : java.util.Arrays.copyOf(b, TAMANHO_REGISTRO);
+        }
+        try {
+            Agendar agendamento = new Agendar();
+            agendamento.fromByteArray(b);
+            return agendamento.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public byte[] toByteArray() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
 
         dos.writeInt(getId());
-        dos.writeUTF(getData() != null ? getData().toString() : "");
+        dos.writeByte(VERSAO_FORMATO);
+        dos.writeInt(getData() != null ? (int) getData().toEpochDay() : SEM_DATA);
         dos.writeInt(getIdPet());
         dos.writeInt(getIdServico());
         
@@ -50,8 +83,14 @@ public class Agendar implements Registro {
         DataInputStream dis = new DataInputStream(bais);
 
         setId(dis.readInt());
-        String dataStr = dis.readUTF();
-        setData(!dataStr.isEmpty() ? LocalDate.parse(dataStr) : null);
+        if (formatoAntigo(b)) {
+            String dataStr = dis.readUTF();
+            setData(!dataStr.isEmpty() ? LocalDate.parse(dataStr) : null);
+        } else {
+            dis.readByte();
+            int dia = dis.readInt();
+            setData(dia != SEM_DATA ? LocalDate.ofEpochDay(dia) : null);
+        }
         setIdPet(dis.readInt());
         setIdServico(dis.readInt());
     }
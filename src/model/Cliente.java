@@ -5,11 +5,16 @@ import dao.Registro;
 import dao.RSAKeyManager;
 
 public class Cliente implements Registro {
+    // Versão do formato dos registros, gravada no cabeçalho do arquivo de clientes
+    // (1: email cifrado com a chave de dados, ver RSAKeyManager)
+    public static final int VERSAO_FORMATO = 1;
+
     private int id;
     private String cpf;
     private String nome;
-    private String email; // Email será armazenado descriptografado em memória
+    private String email; // Email descriptografado (lido do arquivo: só no primeiro getEmail)
     private String emailCriptografado; // Email criptografado para persistência
+    private boolean emailDescriptografado; // false enquanto email ainda não foi descriptografado
     private String[] telefones;
 
     public Cliente() {
@@ -30,6 +35,7 @@ public class Cliente implements Registro {
     
     public void setEmail(String email) { 
         this.email = email;
+        this.emailDescriptografado = true;
         // Criptografar o email para persistência
         try {
             if (email != null && !email.trim().isEmpty()) {
@@ -48,10 +54,49 @@ public class Cliente implements Registro {
     public int getId() { return id; }
     public String getCpf() { return cpf; }
     public String getNome() { return nome; }
-    public String getEmail() { return email; }
     public String getEmailCriptografado() { return emailCriptografado; }
     public String[] getTelefones() { return telefones; }
 
+    /**
+     * Email descriptografado. Um cliente lido do arquivo só descriptografa o
+     * email (uma operação com a chave privada) na primeira chamada; listagens
+     * e buscas que não usam o email não pagam por isso.
+     */
+    public String getEmail() {
+        if (!emailDescriptografado) {
+            email = descriptografarEmail();
+            emailDescriptografado = true;
+        }
+        return email;
+    }
+
+    private String descriptografarEmail() {
+        try {
+            if (emailCriptografado != null && !emailCriptografado.trim().isEmpty()) {
+                return RSAKeyManager.getInstance().descriptografar(emailCriptografado);
+            }
+            return "";
+        } catch (Exception e) {
+            System.err.println("Erro ao descriptografar email: " + e.getMessage());
+            return emailCriptografado; // Fallback: usar o texto criptografado
+        }
+    }
+
+    /**
+     * Serializa de novo os bytes de um registro, descartando os bytes que
+     * sobraram no final quando ele foi regravado no lugar de um maior.
+     * O email continua cifrado como estava.
+     */
+    public static byte[] regravar(byte[] b) {
+        try {
+            Cliente cliente = new Cliente();
+            cliente.fromByteArray(b);
+            return cliente.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public byte[] toByteArray() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
@@ -82,20 +127,11 @@ public class Cliente implements Registro {
         setCpf(dis.readUTF());
         setNome(dis.readUTF());
         
-        // Ler o email CRIPTOGRAFADO do arquivo
+        // Ler o email CRIPTOGRAFADO do arquivo; ele só é descriptografado
+        // quando for usado (ver getEmail)
         this.emailCriptografado = dis.readUTF();
-        
-        // Descriptografar o email para uso em memória
-        try {
-            if (emailCriptografado != null && !emailCriptografado.trim().isEmpty()) {
-                this.email = RSAKeyManager.getInstance().descriptografar(emailCriptografado);
-            } else {
-                this.email = "";
-            }
-        } catch (Exception e) {
-            System.err.println("Erro ao descriptografar email: " + e.getMessage());
-            this.email = emailCriptografado; // Fallback: usar o texto criptografado
-        }
+        this.email = null;
+        this.emailDescriptografado = false;
 
         int telefonesLength = dis.readByte();  // Otimização: lê 1 byte ao invés de 4
         String[] telefones = new String[telefonesLength];